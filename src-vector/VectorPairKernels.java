@@ -0,0 +1,61 @@
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * PairKernels 的 jdk.incubator.vector 版本，每次处理 SPECIES.length() 个元素（AVX2 上是 4 个 double），
+ * 凑不满一个向量的尾部交给标量循环。分支都换成掩码：不计引力、不会相撞的通道用 blend 换成 0 或正无穷。
+ * <p>
+ * 这个类引用了孵化模块，所以不在 src 里：按 PairKernels 中的命令单独编译，运行时也要带 --add-modules jdk.incubator.vector，
+ * 由 PairKernels 通过 Class.forName 加载。
+ */
+final class VectorPairKernels implements PairKernels.Kernel{
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+
+    VectorPairKernels(){
+    }
+
+    @Override
+    public void gravity(double x, double y, double radius, PairKernels.Lanes src, int n, double[] out){
+        double[] xs = src.x, ys = src.y, ms = src.m, rs = src.r;
+        DoubleVector fx = DoubleVector.zero(SPECIES), fy = DoubleVector.zero(SPECIES);
+        int bound = SPECIES.loopBound(n);
+        for(int i = 0; i < bound; i += SPECIES.length()){
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, xs, i).sub(x);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, ys, i).sub(y);
+            DoubleVector d = dx.mul(dx).add(dy.mul(dy)).sqrt();
+            VectorMask<Double> far = d.compare(VectorOperators.GT, DoubleVector.fromArray(SPECIES, rs, i).add(radius));
+            DoubleVector s = DoubleVector.fromArray(SPECIES, ms, i).div(d.mul(d).mul(d));
+            s = DoubleVector.zero(SPECIES).blend(s, far);
+            fx = fx.add(s.mul(dx));
+            fy = fy.add(s.mul(dy));
+        }
+        out[0] += fx.reduceLanes(VectorOperators.ADD);
+        out[1] += fy.reduceLanes(VectorOperators.ADD);
+        PairKernels.gravity(x, y, radius, src, bound, n, out);
+    }
+
+    @Override
+    public void timeToHit(double x, double y, double vx, double vy, double radius, PairKernels.Lanes src, int n, double[] dt){
+        double[] xs = src.x, ys = src.y, vxs = src.vx, vys = src.vy, rs = src.r;
+        int bound = SPECIES.loopBound(n);
+        for(int i = 0; i < bound; i += SPECIES.length()){
+            DoubleVector dx = DoubleVector.fromArray(SPECIES, xs, i).sub(x);
+            DoubleVector dy = DoubleVector.fromArray(SPECIES, ys, i).sub(y);
+            DoubleVector dvx = DoubleVector.fromArray(SPECIES, vxs, i).sub(vx);
+            DoubleVector dvy = DoubleVector.fromArray(SPECIES, vys, i).sub(vy);
+            DoubleVector sigma = DoubleVector.fromArray(SPECIES, rs, i).add(radius);
+            DoubleVector dvdr = dx.mul(dvx).add(dy.mul(dvy));
+            DoubleVector dvdv = dvx.mul(dvx).add(dvy.mul(dvy));
+            DoubleVector d = dvdr.mul(dvdr).sub(dvdv.mul(dx.mul(dx).add(dy.mul(dy)).sub(sigma.mul(sigma))));
+            VectorMask<Double> miss = dvdr.compare(VectorOperators.GT, 0)
+                    .or(dvdv.compare(VectorOperators.EQ, 0))
+                    .or(d.compare(VectorOperators.LT, 0));
+            //被掩掉的通道里可能是 NaN 或者除以 0，不影响结果
+            DoubleVector t = dvdr.add(d.sqrt()).neg().div(dvdv);
+            t.blend(Double.POSITIVE_INFINITY, miss).intoArray(dt, i);
+        }
+        PairKernels.timeToHit(x, y, vx, vy, radius, src, bound, n, dt);
+    }
+}
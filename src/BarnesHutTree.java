@@ -1,26 +1,133 @@
 import java.util.ArrayList;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
 
 //改写BHTree
 public class BarnesHutTree{
-    private Particle particle;
+    private Particle[] bodies;    // 叶子中的粒子（最多 leafCapacity 个），内部节点为 null
+    private int count;            // 叶子中粒子的个数
+    private final int leafCapacity;
+    private double mass;          // 子树的总质量
+    private double comX, comY;    // 子树的质心
+    private double qxx, qxy, qyy; // 子树关于质心的四极矩，由 computeQuadrupoles 计算
     private Quad quad;     // square region that the tree represents
     private BarnesHutTree NW;     // tree representing northwest quadrant
     private BarnesHutTree NE;     // tree representing northeast quadrant
     private BarnesHutTree SW;     // tree representing southwest quadrant
     private BarnesHutTree SE;     // tree representing southeast quadrant
+    private BarnesHutTree parent; // 父节点，增量更新时沿路径向上修正质心
+    private List<Particle> outside;   // 只在根节点使用：离开了根 quad、暂时不在树里的粒子，回到 quad 之后重新插入
 
     //Create and initialize a new bhtree. Initially, all nodes are null and will be filled by recursion
     //Each BHTree represents a quadrant and a body that represents all bodies inside the quadrant
     public BarnesHutTree(Quad q){
+        this(q, 1);
+    }
+
+    //叶子最多容纳 leafCapacity 个粒子，叶子内部直接求和
+    public BarnesHutTree(Quad q, int leafCapacity){
         this.quad = q;
-        this.particle = null;
+        this.leafCapacity = leafCapacity;
+        this.bodies = null;
         this.NW = null;
         this.NE = null;
         this.SW = null;
         this.SE = null;
     }
 
+    private BarnesHutTree(Quad q, BarnesHutTree parent){
+        this(q, parent.leafCapacity);
+        this.parent = parent;
+    }
+
+    /**
+     * 并行建树：根下面的四个象限互不相关，先按象限划分粒子，再用 ForkJoinPool 同时建各个子树，
+     * 返回时自底向上合并质心。深度达到 cutoff 之后的子树按原来的方式逐个 insert。
+     * cutoff 为 0 时就是顺序建树。
+     */
+    public static BarnesHutTree build(Particle[] particles, Quad q, int cutoff, int leafCapacity){
+        BarnesHutTree root = new BarnesHutTree(q, leafCapacity);
+        if(cutoff <= 0){
+            for(Particle p : particles){
+                root.insert(p);
+            }
+            return root;
+        }
+        Particle[] src = particles.clone();
+        Particle[] dst = new Particle[particles.length];
+        ForkJoinPool.commonPool().invoke(new BuildTask(root, src, dst, 0, particles.length, 0, cutoff));
+        return root;
+    }
+
+    private static class BuildTask extends RecursiveAction{
+        private static final long serialVersionUID = 1L;
+
+        private final BarnesHutTree node;
+        private final Particle[] src, dst;   // [lo, hi) 在 src 中，划分结果写到 dst 的同一段
+        private final int lo, hi, depth, cutoff;
+
+        BuildTask(BarnesHutTree node, Particle[] src, Particle[] dst, int lo, int hi, int depth, int cutoff){
+            this.node = node;
+            this.src = src;
+            this.dst = dst;
+            this.lo = lo;
+            this.hi = hi;
+            this.depth = depth;
+            this.cutoff = cutoff;
+        }
+
+        @Override
+        protected void compute(){
+            if(hi - lo <= node.leafCapacity){
+                for(int i = lo; i < hi; i++){
+                    node.addBody(src[i]);
+                }
+                return;
+            }
+            if(depth >= cutoff){
+                for(int i = lo; i < hi; i++){
+                    node.insert(src[i]);
+                }
+                return;
+            }
+
+            //和 insert 相同的判断顺序：NW, NE, SE, 其余都放进 SW
+            int[] quadrant = new int[hi - lo];
+            int[] start = new int[5];
+            for(int i = lo; i < hi; i++){
+                int k = node.quadrant(src[i].getRx(), src[i].getRy());
+                quadrant[i - lo] = k;
+                start[k + 1]++;
+            }
+            start[0] = lo;
+            for(int k = 1; k <= 4; k++){
+                start[k] += start[k - 1];
+            }
+            int[] next = start.clone();
+            for(int i = lo; i < hi; i++){
+                dst[next[quadrant[i - lo]]++] = src[i];
+            }
+
+            List<BuildTask> tasks = new ArrayList<>();
+            for(int k = 0; k < 4; k++){
+                if(start[k + 1] == start[k]) continue;
+                BarnesHutTree child = new BarnesHutTree(node.subQuad(k), node);
+                node.setChild(k, child);
+                tasks.add(new BuildTask(child, dst, src, start[k], start[k + 1], depth + 1, cutoff));
+            }
+            invokeAll(tasks);
+            node.refit();
+        }
+    }
+
+    private void setChild(int k, BarnesHutTree child){
+        if(k == 0) this.NW = child;
+        else if(k == 1) this.NE = child;
+        else if(k == 2) this.SE = child;
+        else this.SW = child;
+    }
+
     //If all nodes of the BHTree are null, then the quadrant represents a single body and it is "external"
     public Boolean isExternal(){
         if(NW == null && NE == null && SW == null && SE == null) return true;
@@ -29,91 +136,215 @@ public class BarnesHutTree{
 
     //We have to populate the tree with bodies. We start at the current tree and recursively travel through the branches
     public void insert(Particle b){
-        //If there's not a body there already, put the body there.
-        if(this.particle == null){
-            this.particle = b;
-        }
-        //If there's already a body there, but it's not an external node
-        //combine the two bodies and figure out which quadrant of the
-        //tree it should be located in. Then recursively update the nodes below it.
-        else if(!this.isExternal()){
-            this.particle = b.centroid(this.particle, b);
-
-            Quad northwest = this.quad.NW();
-            if(b.in(northwest)){
-                if(this.NW == null){
-                    this.NW = new BarnesHutTree(northwest);
-                }
-                NW.insert(b);
-            }
-            else{
-                Quad northeast = this.quad.NE();
-                if(b.in(northeast)){
-                    if(this.NE == null){
-                        this.NE = new BarnesHutTree(northeast);
-                    }
-                    NE.insert(b);
-                }
-                else{
-                    Quad southeast = this.quad.SE();
-                    if(b.in(southeast)){
-                        if(this.SE == null){
-                            this.SE = new BarnesHutTree(southeast);
-                        }
-                        SE.insert(b);
-                    }
-                    else{
-                        Quad southwest = this.quad.SW();
-                        if(this.SW == null){
-                            this.SW = new BarnesHutTree(southwest);
-                        }
-                        SW.insert(b);
-                    }
-                }
+        //If the node is an internal node, add the body to the total mass and
+        //centre of mass in place, figure out which quadrant of the tree it
+        //should be located in, then recursively update the nodes below it.
+        if(!this.isExternal()){
+            this.addMass(b.getRx(), b.getRy(), b.getMass());
+            this.child(b).insert(b);
+        }
+        //If the leaf is not full yet, put the body there.
+        else if(this.count < this.leafCapacity){
+            this.addBody(b);
+        }
+        //If the leaf is full, push its bodies down into the quadrants where
+        //they should go, then insert b again into the (now internal) node.
+        else{
+            Particle[] old = this.bodies;
+            int n = this.count;
+            this.setLeafMass();
+            this.bodies = null;
+            this.count = 0;
+            //旧的粒子可能已经移出这个节点（增量更新中还没轮到它），这时会被放进 SW，之后 update 会把它移走
+            for(int i = 0; i < n; i++){
+                this.child(old[i]).insert(old[i]);
             }
+            this.insert(b);
+        }
+    }
+
+    private void addBody(Particle b){
+        if(this.bodies == null) this.bodies = new Particle[this.leafCapacity];
+        this.bodies[this.count++] = b;
+        this.addMass(b.getRx(), b.getRy(), b.getMass());
+        b.setLeaf(this);
+    }
+
+    private void removeBody(int i){
+        this.count--;
+        this.bodies[i] = this.bodies[this.count];
+        this.bodies[this.count] = null;
+    }
+
+    private boolean holds(Particle p){
+        for(int i = 0; i < this.count; i++){
+            if(this.bodies[i] == p) return true;
         }
-        //If the node is external and contains another body, create BHTrees
-        //where the bodies should go, update the node, and end
-        //(do not do anything recursively)
-        else if(this.isExternal()){
-            Particle c = this.particle;
-            Quad northwest = this.quad.NW();
-            if(c.in(northwest)){
-                if(this.NW == null){
-                    this.NW = new BarnesHutTree(northwest);
+        return false;
+    }
+
+    private void addMass(double x, double y, double m){
+        double total = this.mass + m;
+        this.comX = (this.comX * this.mass + x * m) / total;
+        this.comY = (this.comY * this.mass + y * m) / total;
+        this.mass = total;
+    }
+
+    //叶子的质量和质心由其中粒子的当前值求和
+    private void setLeafMass(){
+        double m = 0, x = 0, y = 0;
+        for(int i = 0; i < this.count; i++){
+            Particle p = this.bodies[i];
+            m += p.getMass();
+            x += p.getRx() * p.getMass();
+            y += p.getRy() * p.getMass();
+        }
+        this.mass = m;
+        this.comX = (m == 0) ? 0 : x / m;
+        this.comY = (m == 0) ? 0 : y / m;
+    }
+
+    //和 Quad.NW()/NE()/SE() 相同的判断顺序，但不创建新的 Quad：0 = NW, 1 = NE, 2 = SE, 3 = SW
+    private int quadrant(double x, double y){
+        double half = this.quad.getLength() / 2.0;
+        double d = this.quad.getLength() / 4.0;
+        double xmid = this.quad.getXmid();
+        double ymid = this.quad.getYmid();
+        if(Quad.testContain(x, y, xmid - d, half, ymid + d)) return 0;
+        if(Quad.testContain(x, y, xmid + d, half, ymid + d)) return 1;
+        if(Quad.testContain(x, y, xmid + d, half, ymid - d)) return 2;
+        return 3;
+    }
+
+    private BarnesHutTree getChild(int k){
+        if(k == 0) return this.NW;
+        else if(k == 1) return this.NE;
+        else if(k == 2) return this.SE;
+        else return this.SW;
+    }
+
+    private Quad subQuad(int k){
+        if(k == 0) return this.quad.NW();
+        else if(k == 1) return this.quad.NE();
+        else if(k == 2) return this.quad.SE();
+        else return this.quad.SW();
+    }
+
+    //粒子所在象限的子节点，不存在时才创建
+    private BarnesHutTree child(Particle p){
+        int k = quadrant(p.getRx(), p.getRy());
+        BarnesHutTree c = getChild(k);
+        if(c == null){
+            c = new BarnesHutTree(subQuad(k), this);
+            setChild(k, c);
+        }
+        return c;
+    }
+
+    //根据子节点重新计算总质量和质心
+    private void refit(){
+        double m = 0, x = 0, y = 0;
+        for(int k = 0; k < 4; k++){
+            BarnesHutTree c = getChild(k);
+            if(c == null) continue;
+            if(c.isExternal()) c.setLeafMass();
+            m += c.mass;
+            x += c.comX * c.mass;
+            y += c.comY * c.mass;
+        }
+        this.mass = m;
+        this.comX = x / m;
+        this.comY = y / m;
+    }
+
+    private void detach(BarnesHutTree child){
+        if(this.NW == child) this.NW = null;
+        else if(this.NE == child) this.NE = null;
+        else if(this.SE == child) this.SE = null;
+        else if(this.SW == child) this.SW = null;
+    }
+
+    //单个粒子移动后的增量更新：
+    //仍在原来的 quad 里只需沿路径修正质心，否则从叶子摘下、清掉空节点后从根重新插入；
+    //离开了根 quad 的粒子记在 outside 里，回来之后再插入
+    public void update(Particle p){
+        BarnesHutTree leaf = p.getLeaf();
+        if(leaf == null){
+            if(this.outside != null && p.in(this.quad) && this.outside.remove(p)) this.insert(p);
+            return;
+        }
+        if(!leaf.holds(p)) return;
+
+        BarnesHutTree node = leaf.parent;
+        if(!p.in(leaf.quad)){
+            for(int i = 0; i < leaf.count; i++){
+                if(leaf.bodies[i] == p){
+                    leaf.removeBody(i);
+                    break;
                 }
-                NW.insert(c);
             }
-            else{
-                Quad northeast = this.quad.NE();
-                if(c.in(northeast)){
-                    if(this.NE == null){
-                        this.NE = new BarnesHutTree(northeast);
-                    }
-                    NE.insert(c);
-                }
-                else{
-                    Quad southeast = this.quad.SE();
-                    if(c.in(southeast)){
-                        if(this.SE == null){
-                            this.SE = new BarnesHutTree(southeast);
-                        }
-                        SE.insert(c);
-                    }
-                    else{
-                        Quad southwest = this.quad.SW();
-                        //测试用 避免飞出边界时RE
-                        if(!c.in(southwest)) return;
-
-                        if(this.SW == null){
-                            this.SW = new BarnesHutTree(southwest);
-                        }
-                        SW.insert(c);
-                    }
+            p.setLeaf(null);
+            BarnesHutTree empty = leaf;
+            while(empty.count == 0 && node != null){
+                node.detach(empty);
+                if(!node.isExternal()) break;
+                node.mass = 0;
+                empty = node;
+                node = node.parent;
+            }
+        }
+        for(; node != null; node = node.parent){
+            node.refit();
+        }
+
+        if(p.getLeaf() == null){
+            if(p.in(this.quad)) this.insert(p);
+            else this.escape(p);
+        }
+    }
+
+    //所有粒子都移动过之后的整体更新：只重新插入离开了原来 quad 的粒子（包括之前离开根 quad 的），其余节点只修正质心
+    public void update(){
+        List<Particle> escaped = new ArrayList<>();
+        this.collect(escaped);
+        if(this.outside != null){
+            escaped.addAll(this.outside);
+            this.outside.clear();
+        }
+        for(Particle p : escaped){
+            if(p.in(this.quad)) this.insert(p);
+            else this.escape(p);
+        }
+    }
+
+    private void escape(Particle p){
+        if(this.outside == null) this.outside = new ArrayList<>();
+        this.outside.add(p);
+    }
+
+    //后序遍历：摘下离开 quad 的粒子并修正质心，返回该节点是否已经为空
+    private boolean collect(List<Particle> escaped){
+        if(this.isExternal()){
+            for(int i = this.count - 1; i >= 0; i--){
+                Particle p = this.bodies[i];
+                if(p.getLeaf() == this && !p.in(this.quad)){
+                    escaped.add(p);
+                    p.setLeaf(null);
+                    this.removeBody(i);
                 }
             }
-            this.insert(b);
+            return this.count == 0;
         }
+        if(this.NW != null && this.NW.collect(escaped)) this.NW = null;
+        if(this.NE != null && this.NE.collect(escaped)) this.NE = null;
+        if(this.SE != null && this.SE.collect(escaped)) this.SE = null;
+        if(this.SW != null && this.SW.collect(escaped)) this.SW = null;
+        if(this.isExternal()){
+            this.mass = 0;
+            return true;
+        }
+        this.refit();
+        return false;
     }
 
     //用四叉树的方法近似计算施加在b上的所有力
@@ -121,38 +352,185 @@ public class BarnesHutTree{
     //Until either we reach an external node or we reach a node that is sufficiently
     //far away that the external nodes would not matter much.
     public void updateForce(Particle b, double g){
+        updateForce(b, g, OpeningCriterion.DEFAULT);
+    }
+
+    //粒子的位置在遍历前读出一次，不必每个节点都经过 Particle 视图去读 ParticleStore
+    public void updateForce(Particle b, double g, OpeningCriterion opening){
+        updateForce(b, b.getRx(), b.getRy(), g, opening, b.getAcceleration());
+    }
+
+    private void updateForce(Particle b, double bx, double by, double g, OpeningCriterion opening, double aOld){
         if(this.isExternal()){
-            if(this.particle != b) b.addForceTo(this.particle, g);
+            //叶子内部直接求和
+            for(int i = 0; i < this.count; i++){
+                Particle x = this.bodies[i];
+                if(x != b) b.addForceTo(x.getRx(), x.getRy(), x.getMass(), x.getRadius(), g);
+            }
         }
-        else if(this.quad.length() / (this.particle.distanceTo(b)) < 2){
-            b.addForceTo(this.particle, g);
+        else if(opening.accept(this.quad.length(), this.mass, distanceTo(bx, by), this.quad.contains(bx, by), aOld, g)){
+            b.addForceTo(this.comX, this.comY, this.mass, 0, g);
+            if(opening.isQuadrupole()) b.addQuadrupoleForceTo(this.comX, this.comY, this.qxx, this.qxy, this.qyy, g);
         }
         else{
-            if(this.NW != null) this.NW.updateForce(b, g);
-            if(this.SW != null) this.SW.updateForce(b, g);
-            if(this.SE != null) this.SE.updateForce(b, g);
-            if(this.NE != null) this.NE.updateForce(b, g);
+            if(this.NW != null) this.NW.updateForce(b, bx, by, g, opening, aOld);
+            if(this.SW != null) this.SW.updateForce(b, bx, by, g, opening, aOld);
+            if(this.SE != null) this.SE.updateForce(b, bx, by, g, opening, aOld);
+            if(this.NE != null) this.NE.updateForce(b, bx, by, g, opening, aOld);
         }
     }
 
-    //返回该粒子所在的external节点
-    public BarnesHutTree find(Particle p){
-        if(p == null) return null;
+    /**
+     * 分组计算引力：子树里粒子数不超过 groupSize 的最高节点作为一组，每组只从根遍历一次，
+     * 用组内粒子的包围盒代替单个粒子判断是否接受节点（距离取质心到包围盒的最近距离，
+     * 误差条件取组内最小的上一步加速度），得到的节点列表和叶子粒子列表由组内所有粒子共用。
+     * 包围盒到节点的距离不大于组内任一粒子到节点的距离，所以这里接受的节点单独遍历时也会接受，通常更准。
+     * 只累加引力，调用前需要 resetForce。
+     */
+    public void updateForceByGroup(double g, OpeningCriterion opening, int groupSize){
+        List<BarnesHutTree> groups = new ArrayList<>();
+        if(this.collectGroups(groups, groupSize) <= groupSize) groups.add(this);
+        groups.parallelStream().forEach(group -> {
+            List<Particle> members = new ArrayList<>();
+            group.gather(members);
+            if(members.isEmpty()) return;
+            double minX = Double.POSITIVE_INFINITY, minY = Double.POSITIVE_INFINITY;
+            double maxX = Double.NEGATIVE_INFINITY, maxY = Double.NEGATIVE_INFINITY;
+            double aOld = Double.POSITIVE_INFINITY;
+            for(Particle p : members){
+                minX = Math.min(minX, p.getRx());
+                minY = Math.min(minY, p.getRy());
+                maxX = Math.max(maxX, p.getRx());
+                maxY = Math.max(maxY, p.getRy());
+                aOld = Math.min(aOld, p.getAcceleration());
+            }
+
+            List<BarnesHutTree> nodes = new ArrayList<>();
+            List<Particle> near = new ArrayList<>();
+            this.interactionList(minX, minY, maxX, maxY, opening, aOld, g, nodes, near);
+
+            //交互列表展开成基本类型数组交给 PairKernels；粒子自己距离为 0，不会计入引力
+            PairKernels.Lanes lanes = PairKernels.lanes();
+            lanes.clear();
+            for(BarnesHutTree node : nodes) lanes.add(node.comX, node.comY, node.mass);
+            for(Particle x : near) lanes.add(x);
+            double[] force = lanes.force;
+            for(Particle p : members){
+                force[0] = 0;
+                force[1] = 0;
+                PairKernels.gravity(p.getRx(), p.getRy(), p.getRadius(), lanes, lanes.size, force);
+                p.addForce(g * p.getMass() * force[0], g * p.getMass() * force[1]);
+                if(opening.isQuadrupole()){
+                    for(BarnesHutTree node : nodes){
+                        p.addQuadrupoleForceTo(node.comX, node.comY, node.qxx, node.qxy, node.qyy, g);
+                    }
+                }
+            }
+        });
+    }
+
+    //子树中的所有粒子
+    private void gather(List<Particle> out){
+        for(int i = 0; i < this.count; i++) out.add(this.bodies[i]);
+        for(int k = 0; k < 4; k++){
+            BarnesHutTree c = getChild(k);
+            if(c != null) c.gather(out);
+        }
+    }
+
+    //返回子树中的粒子数，粒子数超过 groupSize 的节点把不超过的非空子节点加入 groups；
+    //叶子容量大于 groupSize 或者重合的粒子挤在一个叶子里时，超过 groupSize 的叶子自己成为一组
+    private int collectGroups(List<BarnesHutTree> groups, int groupSize){
         if(this.isExternal()){
-            return this;
+            if(this.count > groupSize) groups.add(this);
+            return this.count;
         }
-        else if(p.in(this.quad.NW())){
-            return this.NW.find(p);
+        int[] counts = new int[4];
+        int total = 0;
+        for(int k = 0; k < 4; k++){
+            BarnesHutTree c = getChild(k);
+            if(c == null) continue;
+            counts[k] = c.collectGroups(groups, groupSize);
+            total += counts[k];
         }
-        else if(p.in(this.quad.NE())){
-            return this.NE.find(p);
+        if(total > groupSize){
+            for(int k = 0; k < 4; k++){
+                if(counts[k] > 0 && counts[k] <= groupSize) groups.add(getChild(k));
+            }
+        }
+        return total;
+    }
+
+    //包围盒 [minX, maxX] x [minY, maxY] 的共用交互列表：被接受的节点放进 nodes，需要直接求和的叶子粒子放进 near
+    private void interactionList(double minX, double minY, double maxX, double maxY, OpeningCriterion opening,
+                                 double aOld, double g, List<BarnesHutTree> nodes, List<Particle> near){
+        if(this.isExternal()){
+            for(int i = 0; i < this.count; i++) near.add(this.bodies[i]);
+            return;
         }
-        else if(p.in(this.quad.SE())){
-            return this.SE.find(p);
+        double dx = Math.max(0, Math.max(minX - this.comX, this.comX - maxX));
+        double dy = Math.max(0, Math.max(minY - this.comY, this.comY - maxY));
+        double half = this.quad.length() / 2;
+        boolean inside = minX <= this.quad.getXmid() + half && maxX >= this.quad.getXmid() - half
+                && minY <= this.quad.getYmid() + half && maxY >= this.quad.getYmid() - half;
+        if(opening.accept(this.quad.length(), this.mass, Math.sqrt(dx * dx + dy * dy), inside, aOld, g)){
+            nodes.add(this);
         }
         else{
-            return this.SW.find(p);
+            for(int k = 0; k < 4; k++){
+                BarnesHutTree c = getChild(k);
+                if(c != null) c.interactionList(minX, minY, maxX, maxY, opening, aOld, g, nodes, near);
+            }
+        }
+    }
+
+    //后序遍历计算每个节点关于自身质心的四极矩，子节点的四极矩用平行轴定理移到父节点质心
+    //必须在质心都是最新的时候调用（建树或 update 之后）
+    public void computeQuadrupoles(){
+        this.qxx = 0;
+        this.qxy = 0;
+        this.qyy = 0;
+        if(this.isExternal()){
+            this.setLeafMass();
+            for(int i = 0; i < this.count; i++){
+                Particle p = this.bodies[i];
+                this.addMoment(p.getMass(), p.getRx() - this.comX, p.getRy() - this.comY);
+            }
+            return;
+        }
+        for(int k = 0; k < 4; k++){
+            BarnesHutTree c = getChild(k);
+            if(c == null) continue;
+            c.computeQuadrupoles();
+            this.qxx += c.qxx;
+            this.qxy += c.qxy;
+            this.qyy += c.qyy;
+            this.addMoment(c.mass, c.comX - this.comX, c.comY - this.comY);
+        }
+    }
+
+    private void addMoment(double m, double dx, double dy){
+        double d2 = dx * dx + dy * dy;
+        this.qxx += m * (3 * dx * dx - d2);
+        this.qxy += m * 3 * dx * dy;
+        this.qyy += m * (3 * dy * dy - d2);
+    }
+
+    private double distanceTo(double x, double y){
+        double dx = this.comX - x;
+        double dy = this.comY - y;
+        return Math.sqrt(dx * dx + dy * dy);
+    }
+
+    //返回该粒子所在的external节点
+    public BarnesHutTree find(Particle p){
+        if(p == null) return null;
+        if(this.isExternal()){
+            return this;
         }
+        //粒子不在树中（例如飞出边界）时停在最深的已有节点
+        BarnesHutTree child = getChild(quadrant(p.getRx(), p.getRy()));
+        return (child == null) ? this : child.find(p);
     }
 
     //判断是否是相邻区域或相互包含的区域
@@ -163,11 +541,15 @@ public class BarnesHutTree{
     }
 
     //预测碰撞的实现 传入单个粒子所在的external节点
-    public void BHTPredict(BarnesHutTree b, int accuracy, PriorityBlockingQueue<Event> pq, double HZ, double t){
+    public void BHTPredict(BarnesHutTree b, int accuracy, EventQueue pq, double HZ, double t){
         if(this.isExternal() && this.adjacent(b, accuracy)){
-            double dt = b.particle.timeToHit(this.particle);
-            if(dt >= 0 && dt <= 1.0 / HZ){
-                pq.add(new Event(t + dt, b.particle, this.particle));
+            for(int i = 0; i < b.count; i++){
+                for(int j = 0; j < this.count; j++){
+                    double dt = b.bodies[i].timeToHit(this.bodies[j]);
+                    if(dt >= 0 && dt <= 1.0 / HZ){
+                        pq.add(new Event(t + dt, b.bodies[i], this.bodies[j]));
+                    }
+                }
             }
         }
         if((this.NW != null) && this.NW.adjacent(b, accuracy)){
@@ -184,29 +566,24 @@ public class BarnesHutTree{
         }
     }
 
-    //寻找临近粒子 返回 临近粒子的集合 需要传入的参数：单个粒子所在的external节点
-    public ArrayList<Particle> getNeighbor(BarnesHutTree b, int accuracy){
-        ArrayList<Particle> neighbors = new ArrayList<>();
-        findNeighbor(b, accuracy, neighbors);
-        return neighbors;
-    }
-
-
-    public void findNeighbor(BarnesHutTree b, int accuracy, ArrayList<Particle> neighbors){
+    //寻找临近粒子，近邻的下标追加到 row 中，需要传入的参数：单个粒子所在的external节点
+    public void findNeighbor(BarnesHutTree b, int accuracy, NeighborTable.Row row){
         if(this.isExternal() && this.adjacent(b, accuracy)){
-            neighbors.add(this.particle);
+            for(int i = 0; i < this.count; i++){
+                row.add(this.bodies[i]);
+            }
         }
         if((this.NW != null) && this.NW.adjacent(b, accuracy)){
-            this.NW.findNeighbor(b, accuracy, neighbors);
+            this.NW.findNeighbor(b, accuracy, row);
         }
         if((this.NE != null) && this.NE.adjacent(b, accuracy)){
-            this.NE.findNeighbor(b, accuracy, neighbors);
+            this.NE.findNeighbor(b, accuracy, row);
         }
         if((this.SE != null) && this.SE.adjacent(b, accuracy)){
-            this.SE.findNeighbor(b, accuracy, neighbors);
+            this.SE.findNeighbor(b, accuracy, row);
         }
         if((this.SW != null) && this.SW.adjacent(b, accuracy)){
-            this.SW.findNeighbor(b, accuracy, neighbors);
+            this.SW.findNeighbor(b, accuracy, row);
         }
     }
 
@@ -0,0 +1,33 @@
+import java.awt.Color;
+
+/**
+ * 基准测试共用的输入：从标准输入读入和 CollisionSystem 相同格式的数据（模式、宽度、粒子数和各个粒子），
+ * 后面的检查点部分不读。粒子还没有放进共同的 ParticleStore，由调用者 adopt。
+ */
+public final class BenchmarkInput{
+    public final double width;
+    public final Particle[] particles;
+
+    private BenchmarkInput(double width, Particle[] particles){
+        this.width = width;
+        this.particles = particles;
+    }
+
+    public static BenchmarkInput read(){
+        StdIn.readString();
+        double width = StdIn.readInt();
+        int n = StdIn.readInt();
+        Particle[] particles = new Particle[n];
+        for(int i = 0; i < n; i++){
+            double rx = StdIn.readDouble();
+            double ry = StdIn.readDouble();
+            double vx = StdIn.readDouble();
+            double vy = StdIn.readDouble();
+            double radius = StdIn.readDouble();
+            double mass = StdIn.readDouble();
+            Color color = new Color(StdIn.readInt(), StdIn.readInt(), StdIn.readInt());
+            particles[i] = new Particle(rx, ry, vx, vy, radius, mass, color);
+        }
+        return new BenchmarkInput(width, particles);
+    }
+}
@@ -0,0 +1,33 @@
+import java.util.concurrent.PriorityBlockingQueue;
+
+//原来的实现：所有预测都放入 PriorityBlockingQueue，过期事件在出队时由 Event.isValid() 丢弃
+public class BlockingEventQueue implements EventQueue{
+    private final PriorityBlockingQueue<Event> pq = new PriorityBlockingQueue<Event>();
+
+    public void add(Event e){
+        pq.add(e);
+    }
+
+    public Event remove(){
+        return pq.remove();
+    }
+
+    public boolean isEmpty(){
+        return pq.isEmpty();
+    }
+
+    public int size(){
+        return pq.size();
+    }
+
+    public void clear(){
+        pq.clear();
+    }
+
+    public void invalidate(Particle p){
+    }
+
+    public boolean keepsOnlyNextEvent(){
+        return false;
+    }
+}
@@ -0,0 +1,187 @@
+import java.util.NoSuchElementException;
+
+/**
+ * 日历队列（Brown, 1988）。事件按时间落入一圈等宽的桶，每个桶是按时间排好序的链表，
+ * 入队和出队的均摊复杂度都是 O(1)。
+ * 我们的事件时间都在 [t, t + 1/HZ] 内，所以初始桶宽直接取 window / 桶数，
+ * 之后随着队列大小翻倍或减半时再按队首事件的平均间隔重新估计桶宽。
+ * 和 PriorityBlockingQueue 一样保留全部预测，过期事件在出队时由 Event.isValid() 丢弃。
+ */
+public class CalendarQueue implements EventQueue{
+    private static final int MIN_BUCKETS = 2;
+
+    private static class Node{
+        final Event event;
+        Node next;
+
+        Node(Event event, Node next){
+            this.event = event;
+            this.next = next;
+        }
+    }
+
+    private Node[] buckets;
+    private double width;       // 每个桶覆盖的时间长度
+    private int size;
+    private int lastBucket;     // 上一次出队所在的桶
+    private double bucketTop;   // lastBucket 在当前"年"里的上界
+    private double lastTime;    // 上一次出队事件的时间
+    private boolean resizeEnabled = true;
+
+    public CalendarQueue(double window){
+        this(window, 64);
+    }
+
+    public CalendarQueue(double window, int nBuckets){
+        //桶数取 2 的幂，桶宽按取整后的桶数算，一"年"正好覆盖 window
+        int count = Math.max(MIN_BUCKETS, Integer.highestOneBit(nBuckets));
+        init(count, window / count, 0);
+    }
+
+    private void init(int nBuckets, double width, double start){
+        this.buckets = new Node[nBuckets];
+        this.width = width;
+        this.size = 0;
+        this.lastTime = start;
+        this.lastBucket = bucketOf(start);
+        this.bucketTop = (Math.floor(start / width) + 1.5) * width;
+    }
+
+    private int bucketOf(double time){
+        return (int) ((long) (time / width) & (buckets.length - 1));
+    }
+
+    public synchronized void add(Event e){
+        // 比上次出队更早的事件（一般不会出现），把日历拨回到它所在的桶
+        if(e.time < lastTime){
+            lastTime = e.time;
+            lastBucket = bucketOf(e.time);
+            bucketTop = (Math.floor(e.time / width) + 1.5) * width;
+        }
+
+        int i = bucketOf(e.time);
+        Node head = buckets[i];
+        if(head == null || e.time < head.event.time){
+            buckets[i] = new Node(e, head);
+        }
+        else{
+            Node p = head;
+            while(p.next != null && p.next.event.time <= e.time){
+                p = p.next;
+            }
+            p.next = new Node(e, p.next);
+        }
+        size++;
+
+        if(resizeEnabled && size > 2 * buckets.length) resize(2 * buckets.length);
+    }
+
+    public synchronized Event remove(){
+        if(size == 0) throw new NoSuchElementException("Priority queue underflow");
+
+        int i = lastBucket;
+        for(int n = 0; n < buckets.length; n++){
+            Node head = buckets[i];
+            if(head != null && head.event.time < bucketTop){
+                return take(i);
+            }
+            i = (i + 1) & (buckets.length - 1);
+            bucketTop += width;
+        }
+
+        // 转了一整年都没有找到：直接找所有桶头中最早的事件
+        int min = -1;
+        for(int j = 0; j < buckets.length; j++){
+            if(buckets[j] != null && (min < 0 || buckets[j].event.time < buckets[min].event.time)){
+                min = j;
+            }
+        }
+        bucketTop = (Math.floor(buckets[min].event.time / width) + 1.5) * width;
+        return take(min);
+    }
+
+    private Event take(int i){
+        Node head = buckets[i];
+        buckets[i] = head.next;
+        size--;
+        lastBucket = i;
+        lastTime = head.event.time;
+
+        if(resizeEnabled && size < buckets.length / 2 && buckets.length > MIN_BUCKETS){
+            resize(buckets.length / 2);
+        }
+        return head.event;
+    }
+
+    // 按新的桶数重建日历，桶宽取队首若干事件平均间隔的 3 倍
+    private void resize(int nBuckets){
+        double newWidth = sampleWidth();
+        Node[] old = buckets;
+        double start = lastTime;
+
+        resizeEnabled = false;
+        init(nBuckets, newWidth, start);
+        for(Node head : old){
+            for(Node p = head; p != null; p = p.next){
+                add(p.event);
+            }
+        }
+        resizeEnabled = true;
+    }
+
+    private double sampleWidth(){
+        int n = Math.min(size, 25);
+        if(n < 2) return width;
+
+        // 先取出队首 n 个事件，再原样放回
+        resizeEnabled = false;
+        Node[] saved = buckets;
+        int savedLast = lastBucket;
+        double savedTop = bucketTop;
+        double savedTime = lastTime;
+        Event[] sample = new Event[n];
+        for(int i = 0; i < n; i++){
+            sample[i] = remove();
+        }
+        for(Event e : sample){
+            add(e);
+        }
+        buckets = saved;
+        lastBucket = savedLast;
+        bucketTop = savedTop;
+        lastTime = savedTime;
+        resizeEnabled = true;
+
+        double average = (sample[n - 1].time - sample[0].time) / (n - 1);
+        double sum = 0;
+        int count = 0;
+        for(int i = 1; i < n; i++){
+            double gap = sample[i].time - sample[i - 1].time;
+            if(gap <= 2 * average){
+                sum += gap;
+                count++;
+            }
+        }
+        if(count == 0 || sum == 0) return width;
+        return 3 * sum / count;
+    }
+
+    public synchronized boolean isEmpty(){
+        return size == 0;
+    }
+
+    public synchronized int size(){
+        return size;
+    }
+
+    public synchronized void clear(){
+        init(buckets.length, width, lastTime);
+    }
+
+    public void invalidate(Particle p){
+    }
+
+    public boolean keepsOnlyNextEvent(){
+        return false;
+    }
+}
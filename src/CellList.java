@@ -0,0 +1,107 @@
+import java.util.Arrays;
+
+/**
+ * 碰撞预测的粗筛（broad phase）：把 [0, width]^2 分成边长不小于 reach 的均匀网格，
+ * 每个粒子只需要检查自己所在格子和周围 3x3 个格子里的粒子。
+ * <p>
+ * reach 取 2 倍最大半径加上一个时钟刻度 1/HZ 内两个粒子最多能接近的距离（2 倍最大速度 / HZ），
+ * 这样在这个刻度内可能相撞的两个粒子，建网格时和刻度内任意时刻的位置都落在相邻的格子里。
+ * 这只对速度不超过建网格时最大速度的粒子成立：碰撞或者引力让某个粒子更快之后，
+ * CollisionSystem 在这个刻度剩下的时间里让它和所有粒子预测，不再依赖网格。
+ * 这只在速度都不超过建网格时的最大速度时成立：碰撞或者引力让某个粒子更快之后，CollisionSystem 会按当前位置重建网格。
+ * 和 BarnesHutTree.findNeighbor 按 accuracy 倍的节点边长找邻居相比，近邻范围只由物理量决定，
+ * 每个粒子的近邻数也比较均匀。
+ * <p>
+ * 粒子按格子用计数排序排好，start[c] 到 start[c + 1] 是第 c 个格子在 order 中的区间，
+ * 数组只在容量不够时扩大，build 和 findNeighbor 都不分配对象。
+ */
+public class CellList{
+    private static final int MAX_CELLS_PER_SIDE = 1024;
+
+    private final double width;
+    private Particle[] particles;
+    private int side;             // 每边的格子数
+    private double cell;          // 格子边长
+    private int[] start = new int[2];
+    private int[] order = new int[0];   // 按格子排好的粒子 id
+    private int[] cellOf = new int[0];
+
+    public CellList(double width){
+        this.width = width;
+    }
+
+    //按当前位置重新分格，格子边长不小于 reach
+    public void build(Particle[] particles, double reach){
+        int n = particles.length;
+        this.particles = particles;
+        this.side = reach > 0 ? (int) Math.max(1, Math.min(MAX_CELLS_PER_SIDE, Math.floor(width / reach))) : MAX_CELLS_PER_SIDE;
+        this.cell = width / side;
+        int cells = side * side;
+        if(start.length < cells + 1) start = new int[cells + 1];
+        if(order.length < n){
+            order = new int[n];
+            cellOf = new int[n];
+        }
+
+        Arrays.fill(start, 0, cells + 1, 0);
+        for(int i = 0; i < n; i++){
+            int c = index(cell(particles[i].getRx()), cell(particles[i].getRy()));
+            cellOf[i] = c;
+            start[c + 1]++;
+        }
+        for(int c = 0; c < cells; c++){
+            start[c + 1] += start[c];
+        }
+        //start[c] 先当作第 c 个格子的写入位置，填完之后再移回来
+        for(int i = 0; i < n; i++){
+            order[start[cellOf[i]]++] = i;
+        }
+        for(int c = cells; c > 0; c--){
+            start[c] = start[c - 1];
+        }
+        start[0] = 0;
+    }
+
+    //p 当前位置所在格子和周围 8 个格子里的粒子（包括 p 自己），结果追加到 row 中
+    public void findNeighbor(Particle p, NeighborTable.Row row){
+        int cx = cell(p.getRx()), cy = cell(p.getRy());
+        for(int y = Math.max(0, cy - 1); y <= Math.min(side - 1, cy + 1); y++){
+            for(int x = Math.max(0, cx - 1); x <= Math.min(side - 1, cx + 1); x++){
+                int c = index(x, y);
+                for(int k = start[c]; k < start[c + 1]; k++){
+                    row.add(order[k]);
+                }
+            }
+        }
+    }
+
+    //同上，只保留和 p 的中心距离不超过 range 的粒子
+    public void findNeighbor(Particle p, double range, NeighborTable.Row row){
+        double px = p.getRx(), py = p.getRy(), range2 = range * range;
+        int cx = cell(px), cy = cell(py);
+        for(int y = Math.max(0, cy - 1); y <= Math.min(side - 1, cy + 1); y++){
+            for(int x = Math.max(0, cx - 1); x <= Math.min(side - 1, cx + 1); x++){
+                int c = index(x, y);
+                for(int k = start[c]; k < start[c + 1]; k++){
+                    Particle that = particles[order[k]];
+                    double dx = that.getRx() - px, dy = that.getRy() - py;
+                    if(dx * dx + dy * dy <= range2) row.add(order[k]);
+                }
+            }
+        }
+    }
+
+    public double getCellSize(){
+        return cell;
+    }
+
+    //超出 [0, width] 的坐标归到边上的格子
+    private int cell(double coordinate){
+        int c = (int) Math.floor(coordinate / cell);
+        return c < 0 ? 0 : (c >= side ? side - 1 : c);
+    }
+
+    private int index(int x, int y){
+        return y * side + x;
+    }
+}
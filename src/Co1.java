@@ -1,7 +1,6 @@
 import java.awt.Color;
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.PriorityBlockingQueue;
 
 
 public class Co1{
@@ -11,12 +10,13 @@ public class Co1{
     private int[] checkParticlesList;
     private static double HZ = 5;    // number of redraw events per clock tick
     public final double G = 6.67259e-11;
-    private PriorityBlockingQueue<Event> pq;          // the priority queue
+    private EventQueue pq;          // the priority queue
     private double t = 0.0;           // simulation clock time
     private Particle[] particles;     // the array of particles
 
     private int accuracy = 6;
     private BarnesHutTree tree; //用于存储所有节点的总树
+    private final NeighborTable neighbors = new NeighborTable();  //所有粒子的近邻，按粒子下标存放
 
     public int numToCheck;
     public double[][] ans;
@@ -109,7 +109,8 @@ public class Co1{
         long start = System.currentTimeMillis();
 
         // initialize PQ with collision events and redraw event
-        pq = new PriorityBlockingQueue<Event>();
+        ParticleStore.adopt(particles);  //近邻表按粒子下标存放
+        pq = new BlockingEventQueue();
         double checkTime = 0;
         int index = 0;
 
@@ -243,12 +244,8 @@ public class Co1{
                             p.predictWalls(pq, width, HZ, t);
                         }
 
-                        Arrays.stream(particles).parallel().forEach(particle -> {
-                            particle.calNeighbors(tree, accuracy);
-                            particle.neighbors.forEach(x -> {
-                                x.action(particle, pq, HZ, t);
-                            });
-                        });
+                        neighbors.build(particles, (p, row) -> tree.findNeighbor(tree.find(p), accuracy, row));
+                        Arrays.stream(particles).parallel().forEach(particle -> particle.actionNeighbors(neighbors, particles, pq, HZ, t));
 
                         if(GUI){
                             redraw();
@@ -268,12 +265,8 @@ public class Co1{
 
                     this.calForces();
 
-                    Arrays.stream(particles).parallel().forEach(particle -> {
-                        particle.calNeighbors(tree, accuracy);
-                        particle.neighbors.forEach(x -> {
-                            x.action(particle, pq, HZ, t);
-                        });
-                    });
+                    neighbors.build(particles, (p, row) -> tree.findNeighbor(tree.find(p), accuracy, row));
+                    Arrays.stream(particles).parallel().forEach(particle -> particle.actionNeighbors(neighbors, particles, pq, HZ, t));
                 }
             }
         }
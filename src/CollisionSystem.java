@@ -1,7 +1,7 @@
 import java.awt.Color;
 import java.io.*;
 import java.util.*;
-import java.util.concurrent.PriorityBlockingQueue;
+import java.util.stream.IntStream;
 
 
 public class CollisionSystem{
@@ -11,12 +11,51 @@ public class CollisionSystem{
     private int[] checkParticlesList;
     private static double HZ = 8;    // number of redraw events per clock tick
     public final double G = 6.67259e-11;
-    private PriorityBlockingQueue<Event> pq;          // the priority queue
+    private EventQueue pq;            // the priority queue
     private double t = 0.0;           // simulation clock time
     private Particle[] particles;     // the array of particles
+    private ParticleStore store;      // particles 的数值状态，particles[i] 是第 i 行的视图
+    private boolean offHeap = false;  //粒子状态放在堆外的直接缓冲区里（OffHeapParticleStore）
+    private boolean singlePrecision = false;  //粒子状态用 float 存放（FloatParticleStore），direct 引力也按 float 计算；其他引力求解器仍按 double
 
     private int accuracy = 8;
     private BarnesHutTree tree; //用于存储所有节点的总树
+    private FlatBarnesHutTree flatTree; //flatTree 模式下代替 tree，每个时钟刻度重建
+    private OpeningCriterion opening = OpeningCriterion.DEFAULT;  //引力计算时节点的接受条件
+    private int leafCapacity = 1;  //tree 每个叶子最多容纳的粒子数
+    private int groupSize = 0;  //大于 0 时 tree 按粒子数不超过 groupSize 的子树分组遍历，组内共用交互列表
+    private int forkDepth = 0;  //大于 0 时每个时钟刻度用 fork/join 并行重建 tree，到这个深度以下改为顺序 insert
+
+    //事件驱动模式：每个事件只推进参与碰撞的粒子，其余粒子按各自的时钟 t 惰性同步
+    //（检查点、重绘和引力计算时才同步）
+    private boolean lazyClock = false;
+
+    //事件队列的实现：heap（按粒子索引的堆）、calendar（日历队列）、blocking（PriorityBlockingQueue）；
+    //完整运行中 calendar 和 heap 一样快，blocking 慢约 10%；单独比较队列时 calendar 最快（见 SchedulerBenchmark），所以默认用 calendar
+    private String scheduler = "calendar";
+
+    //碰撞预测的粗筛：grid（均匀网格 CellList，检查周围 3x3 个格子）、tree（tree / flatTree 按 accuracy 找邻居）、
+    //verlet（带 skin 的 Verlet 近邻表，粒子走得不远时跨时钟刻度复用，碰撞之后也不重新找近邻）、
+    //sap（扫描剪枝，按 x 排好的顺序每个时钟刻度用插入排序修复）
+    private String broadPhase = "verlet";
+    private CellList grid;  //grid 模式下每个时钟刻度重建
+    private SweepAndPrune sweep;
+    private final NeighborTable neighbors = new NeighborTable();  //所有粒子的近邻，按粒子下标存放
+    private final NeighborTable.Finder finder = this::findNeighbor;
+    private VerletList verlet;
+    private double reachSpeed = Double.POSITIVE_INFINITY;  //最近一次 reach() 用的最大速度，tree 模式下不用
+    private double reachRadius;  //最近一次 reach() 用的最大半径
+    private int[] candidates = new int[64];  //predictAll 中按距离初筛出的粒子
+    private final List<Particle> fast = new ArrayList<>();  //这个刻度里速度超过 reachSpeed 的粒子，近邻范围对它们不够
+    private double skin = 0;  //verlet 表的余量，0 表示取第一次建表时近邻范围的一半
+
+    //引力求解器：tree（Barnes-Hut 树）、fmm（快速多极子）、pm（粒子-网格 FFT）、p3m（网格长程 + 近邻短程）、direct（精确直接求和）
+    private String gravity = "tree";
+    private GravityEngine engine;  //tree 模式下为 null，引力由 tree / flatTree 计算
+    private int multipoleOrder = 4;
+    private double multipoleTheta = 0.5;
+    private int meshSize = 128;  //pm 网格每边的格点数，2 的幂
+    private double splitRadius = 0;  //p3m 长短程的拆分半径，0 表示 1.25 倍网格间距
 
     public int numToCheck;
     public double[][] ans;
@@ -44,6 +83,162 @@ public class CollisionSystem{
         this.q = new Quad(width);
     }
 
+    public void setOffHeap(boolean offHeap){
+        this.offHeap = offHeap;
+    }
+
+    //precision 为 float 或 double
+    public void setPrecision(String precision){
+        switch(precision){
+            case "float":
+                this.singlePrecision = true;
+                break;
+            case "double":
+                this.singlePrecision = false;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown precision: " + precision);
+        }
+    }
+
+    public void setLazyClock(boolean lazyClock){
+        this.lazyClock = lazyClock;
+    }
+
+    //morton 表示用 Morton 码排序的方式建平铺树
+    public void setFlatTree(boolean flat, boolean morton){
+        this.flatTree = (flat || morton) ? new FlatBarnesHutTree(morton) : null;
+    }
+
+    public void setOpening(OpeningCriterion opening){
+        this.opening = opening;
+    }
+
+    public void setLeafCapacity(int leafCapacity){
+        this.leafCapacity = leafCapacity;
+    }
+
+    public void setGroupSize(int groupSize){
+        this.groupSize = groupSize;
+    }
+
+    public void setForkDepth(int forkDepth){
+        this.forkDepth = forkDepth;
+    }
+
+    public void setScheduler(String scheduler){
+        this.scheduler = scheduler;
+    }
+
+    public void setBroadPhase(String broadPhase){
+        this.broadPhase = broadPhase;
+    }
+
+    public void setSkin(double skin){
+        this.skin = skin;
+    }
+
+    public void setGravity(String gravity){
+        this.gravity = gravity;
+    }
+
+    //fmm 的展开阶数和接受条件 (rA + rB) < theta * d
+    public void setMultipole(int order, double theta){
+        this.multipoleOrder = order;
+        this.multipoleTheta = theta;
+    }
+
+    //meshSize 必须是 2 的幂（FFT 的要求），由 ParticleMesh 的构造函数检查
+    public void setMeshSize(int meshSize){
+        this.meshSize = meshSize;
+    }
+
+    public void setSplitRadius(double splitRadius){
+        this.splitRadius = splitRadius;
+    }
+
+    public static double getHZ(){
+        return HZ;
+    }
+
+    private EventQueue newEventQueue(){
+        switch(scheduler){
+            case "heap":
+                return new IndexedEventHeap(particles.length);
+            case "calendar":
+                return new CalendarQueue(1.0 / HZ, particles.length);
+            case "blocking":
+                return new BlockingEventQueue();
+            default:
+                throw new IllegalArgumentException("unknown scheduler: " + scheduler);
+        }
+    }
+
+    private GravityEngine newGravityEngine(){
+        switch(gravity){
+            case "tree":
+                return null;
+            case "fmm":
+                return new FastMultipole(q, multipoleOrder, multipoleTheta);
+            case "pm":
+                return new ParticleMesh(q, meshSize);
+            case "direct":
+                return new DirectSum(singlePrecision);
+            case "p3m":
+                return new P3M(q, meshSize, splitRadius(), neighbors);
+            default:
+                throw new IllegalArgumentException("unknown gravity engine: " + gravity);
+        }
+    }
+
+    //把所有粒子同步到当前时钟 t（检查点、重绘、引力计算前调用）
+    private void synchronize(){
+        store.moveTo(t);
+    }
+
+    //惰性推进单个粒子到 t，并让树跟上它的新位置
+    private void advance(Particle p){
+        p.moveTo(t);
+        if(tree != null) tree.update(p);
+    }
+
+    //只为单个粒子重新预测：邻居先惰性推进到 t 再计算碰撞时间
+    private void predictParticle(Particle a){
+        if(a == null) return;
+        if(lazyClock) advance(a);
+
+        a.predictWalls(pq, width, HZ, t);
+        checkSpeed(a);
+        if(fast.contains(a)){
+            predictAll(a);
+            return;
+        }
+        if(lazyClock){
+            for(int k = neighbors.start(a.getId()); k < neighbors.end(a.getId()); k++){
+                advance(particles[neighbors.get(k)]);
+            }
+        }
+        predictNeighbors(a);
+        for(Particle x : fast){
+            if(lazyClock) advance(x);
+            x.action(a, pq, HZ, t);
+        }
+    }
+
+    //a 和所有近邻的碰撞时间交给 PairKernels 批量计算，产生的事件和逐个调用 x.action(a, ...) 相同
+    private void predictNeighbors(Particle a){
+        int from = neighbors.start(a.getId()), to = neighbors.end(a.getId());
+        PairKernels.Lanes lanes = PairKernels.lanes();
+        lanes.clear();
+        for(int k = from; k < to; k++) lanes.add(particles[neighbors.get(k)]);
+        PairKernels.timeToHit(a.getRx(), a.getRy(), a.getVx(), a.getVy(), a.getRadius(), lanes, lanes.size, lanes.dt);
+        for(int k = from; k < to; k++){
+            Particle x = particles[neighbors.get(k)];
+            double dt = lanes.dt[k - from];
+            if(x != a && dt >= 0 && dt <= 1.0 / HZ) pq.add(new Event(t + dt, x, a));
+        }
+    }
+
     private void predictAction(Particle a, Particle b){
         if(a == null) return;
 
@@ -104,12 +299,183 @@ public class CollisionSystem{
     }
 
 
+    /**
+     * 时钟刻度（重绘事件）：同步全体粒子、更新树、计算一次引力，然后清空队列重新预测下一个 1/HZ 内的碰撞
+     */
+    private void tick(boolean GUI){
+        if(lazyClock){
+            synchronize();
+        }
+
+        pq.clear();
+
+        pq.add(new Event(t + 1.0 / HZ, null, null));
+
+        refreshTree();
+        refreshBroadPhase();
+
+        //近邻只和位置有关，先算好供 p3m 的短程引力和下面的碰撞预测共用；
+        //verlet 表和 sap 的近邻在 refreshBroadPhase 里生成
+        if(verlet == null && sweep == null){
+            neighbors.build(particles, finder);
+        }
+
+        //引力速度的改变不计入碰撞次数，所以必须在清空队列之后、预测之前进行
+        this.calForces();
+        //引力的冲量可能让最大速度超过建粗筛时的值，这时按新的速度再刷新一次粗筛（verlet 表的余量够时不重建）
+        fast.clear();
+        if(maxSpeed() > reachSpeed){
+            refreshBroadPhase();
+            if(verlet == null && sweep == null){
+                neighbors.build(particles, finder);
+            }
+        }
+
+        /**
+         * 预测
+         */
+        for(Particle p : particles){
+            p.predictWalls(pq, width, HZ, t);
+        }
+
+        Arrays.stream(particles).parallel().forEach(this::predictNeighbors);
+        for(Particle p : fast){
+            predictAll(p);
+        }
+
+        if(GUI){
+            redraw();
+        }
+    }
+
+    //所有粒子移动之后更新树
+    private void refreshTree(){
+        if(flatTree != null){
+            flatTree.build(particles, q);
+        }
+        else if(forkDepth > 0){
+            tree = BarnesHutTree.build(particles, q, forkDepth, leafCapacity);
+        }
+        else{
+            tree.update();
+        }
+    }
+
+    //grid 模式下按当前的最大半径和最大速度重建网格，verlet 模式下检查位移，需要时重建近邻表，
+    //sap 模式下修复排序并生成所有粒子的近邻表
+    private void refreshBroadPhase(){
+        switch(broadPhase){
+            case "grid":
+                if(grid == null) grid = new CellList(width);
+                grid.build(particles, neighborRange());
+                break;
+            case "verlet":
+                if(verlet == null) verlet = new VerletList(width, skin);
+                verlet.update(particles, neighborRange(), neighbors);
+                break;
+            case "sap":
+                if(sweep == null) sweep = new SweepAndPrune();
+                sweep.build(particles, neighborRange(), neighbors);
+                break;
+            case "tree":
+                grid = null;
+                break;
+            default:
+                throw new IllegalArgumentException("unknown broad phase: " + broadPhase);
+        }
+    }
+
+    //粗筛的近邻范围：碰撞预测需要 reach()，p3m 的短程引力还需要覆盖 P3M.range
+    private double neighborRange(){
+        double range = reach();
+        if("p3m".equals(gravity)) range = Math.max(range, P3M.range(splitRadius()));
+        return range;
+    }
+
+    //p3m 实际使用的拆分半径
+    private double splitRadius(){
+        return splitRadius > 0 ? splitRadius : 1.25 * width / meshSize;
+    }
+
+    //一个时钟刻度内可能相撞的两个粒子在刻度开始时的最大距离：两倍最大半径加上 1/HZ 内最多接近的距离
+    private double reach(){
+        double maxRadius = 0, maxSpeed = 0;
+        for(Particle p : particles){
+            maxRadius = Math.max(maxRadius, p.getRadius());
+            maxSpeed = Math.max(maxSpeed, p.v());
+        }
+        reachSpeed = maxSpeed;
+        reachRadius = maxRadius;
+        return 2 * maxRadius + 2 * maxSpeed / HZ;
+    }
+
+    private double maxSpeed(){
+        double maxSpeed = 0;
+        for(Particle p : particles){
+            maxSpeed = Math.max(maxSpeed, p.v());
+        }
+        return maxSpeed;
+    }
+
+    //碰撞让 p 比建粗筛时的最大速度还快：这个刻度剩下的时间里它可能碰到近邻范围以外的粒子，
+    //之后它和所有粒子预测，其他粒子重新预测时也要和它预测
+    private void checkSpeed(Particle p){
+        if(p.v() > reachSpeed && !fast.contains(p)) fast.add(p);
+    }
+
+    //p 和所有粒子的碰撞预测：先按 1/HZ 内最多能接近的距离（其他快粒子不受这个限制）初筛，
+    //再和 predictNeighbors 一样交给 PairKernels 批量计算
+    private void predictAll(Particle p){
+        if(lazyClock){
+            synchronize();
+        }
+        double range = 2 * reachRadius + (p.v() + reachSpeed) / HZ;
+        double px = p.getRx(), py = p.getRy();
+        PairKernels.Lanes lanes = PairKernels.lanes();
+        lanes.clear();
+        for(Particle x : particles){
+            if(x != p && Math.abs(x.getRx() - px) <= range && Math.abs(x.getRy() - py) <= range) candidate(x, lanes);
+        }
+        for(Particle x : fast){
+            if(x != p && (Math.abs(x.getRx() - px) > range || Math.abs(x.getRy() - py) > range)) candidate(x, lanes);
+        }
+        PairKernels.timeToHit(px, py, p.getVx(), p.getVy(), p.getRadius(), lanes, lanes.size, lanes.dt);
+        for(int k = 0; k < lanes.size; k++){
+            double dt = lanes.dt[k];
+            if(dt >= 0 && dt <= 1.0 / HZ) pq.add(new Event(t + dt, particles[candidates[k]], p));
+        }
+    }
+
+    private void candidate(Particle x, PairKernels.Lanes lanes){
+        if(lanes.size == candidates.length) candidates = Arrays.copyOf(candidates, 2 * lanes.size);
+        candidates[lanes.size] = x.getId();
+        lanes.add(x);
+    }
+
+    //按当前的粗筛找出 p 的近邻
+    private void findNeighbor(Particle p, NeighborTable.Row row){
+        if(grid != null){
+            grid.findNeighbor(p, row);
+        }
+        else if(sweep != null){
+            sweep.findNeighbor(p, row);
+        }
+        else if(flatTree != null){
+            flatTree.findNeighbor(flatTree.find(p), accuracy, row);
+        }
+        else{
+            tree.findNeighbor(tree.find(p), accuracy, row);
+        }
+    }
+
     public void simulate(boolean hasCheckList, boolean hasAnswerList, boolean GUI){
 
         long start = System.currentTimeMillis();
 
         // initialize PQ with collision events and redraw event
-        pq = new PriorityBlockingQueue<Event>();
+        store = ParticleStore.adopt(particles, offHeap, singlePrecision);
+        pq = newEventQueue();
+        engine = newGravityEngine();
         double checkTime = 0;
         int index = 0;
 
@@ -124,11 +490,13 @@ public class CollisionSystem{
         double t_0 = t;
 
         //初始化的建树
-        tree = new BarnesHutTree(q);
-
-        for(Particle p : particles){
-            tree.insert(p);
+        if(flatTree != null){
+            flatTree.build(particles, q);
+        }
+        else{
+            tree = BarnesHutTree.build(particles, q, forkDepth, leafCapacity);
         }
+        refreshBroadPhase();
 
         /**
          * 初始化的预测
@@ -144,104 +512,91 @@ public class CollisionSystem{
              */
             while(!pq.isEmpty()){
                 Event event = pq.remove();
-                if(event.isValid()){
-                    Particle a = event.a;
-                    Particle b = event.b;
-                    /**
-                     * 全体粒子的移动
-                     */
-                    for(int i = 0; i < particles.length; i++){
-                        particles[i].move(event.time - t);
+                if(!event.isValid()){
+                    //过期事件：每个粒子只保留一个事件时，要为其中的粒子补上新的预测
+                    if(pq.keepsOnlyNextEvent()){
+                        predictParticle(event.a);
+                        predictParticle(event.b);
                     }
+                    continue;
+                }
+                Particle a = event.a;
+                Particle b = event.b;
+                /**
+                 * 粒子的移动
+                 * lazyClock 模式下只推进事件中的粒子
+                 */
+                if(lazyClock){
+                    if(a != null) a.moveTo(event.time);
+                    if(b != null) b.moveTo(event.time);
+                }
+                else{
+                    store.move(event.time - t);
+                }
 
-                    t = event.time;
-
-                    /**
-                     * 检查点的检测
-                     */
-                    if(t > checkTime){
-                        if(hasCheckList){
-                            if(numToCheck > index){
-
-                                this.recordAns(index, myAns, particles, checkParticlesList[index]);
+                t = event.time;
 
-                                index++;
-                                if(index < numToCheck){
-                                    checkTime = checkTimeList[index];
-                                }
+                /**
+                 * 检查点的检测
+                 */
+                if(t > checkTime){
+                    if(hasCheckList){
+                        if(numToCheck > index){
+                            if(lazyClock){
+                                advance(particles[checkParticlesList[index]]);
                             }
-                            else{
-                                if(printCount == 0){
-                                    printArray(myAns);
-                                    printCount++;
-                                }
-                            }
-                        }
-                    }
-
-                    /**
-                     * Event Handle
-                     */
-
-                    if(a != null && b != null){
-                        a.bounceOff(b);
-
-                    }             // particle-particle collision
-                    else if(a != null){
-                        a.bounceOffVerticalWall();
-                    }  // particle-wall collision
-                    else if(b != null){
-                        b.bounceOffHorizontalWall();
-                    }// particle-wall collision
-                    else{
-                        while(!pq.isEmpty()){
-                            pq.remove();
-                        }
-
-                        pq.add(new Event(t + 1.0 / HZ, null, null));
 
-                        /**
-                         * 预测
-                         */
-                        tree = new BarnesHutTree(q);
+                            this.recordAns(index, myAns, particles, checkParticlesList[index]);
 
-                        for(Particle p : particles){
-                            tree.insert(p);
-                            p.predictWalls(pq, width, HZ, t);
+                            index++;
+                            if(index < numToCheck){
+                                checkTime = checkTimeList[index];
+                            }
                         }
-
-                        Arrays.stream(particles).parallel().forEach(particle -> {
-                            particle.calNeighbors(tree, accuracy);
-                            particle.neighbors.forEach(x -> {
-                                x.action(particle, pq, HZ, t);
-                            });
-                        });
-
-                        if(GUI){
-                            redraw();
+                        else{
+                            if(printCount == 0){
+                                printArray(myAns);
+                                printCount++;
+                            }
                         }
                     }
+                }
 
-                    /**
-                     * 预测
-                     */
-
-                    tree = new BarnesHutTree(q);
-
-                    for(Particle p : particles){
-                        tree.insert(p);
-                        p.predictWalls(pq, width, HZ, t);
-                    }
-
-                    this.calForces();
+                /**
+                 * Event Handle
+                 * 引力和碰撞分开调度：重绘事件（时钟刻度）上统一计算一次引力并重新预测全体，
+                 * 碰撞事件之间只处理碰撞本身
+                 */
+
+                if(a != null && b != null){
+                    a.bounceOff(b);
+
+                }             // particle-particle collision
+                else if(a != null){
+                    a.bounceOffVerticalWall();
+                }  // particle-wall collision
+                else if(b != null){
+                    b.bounceOffHorizontalWall();
+                }// particle-wall collision
+                else{
+                    tick(GUI);
+                    continue;
+                }
 
-                    Arrays.stream(particles).parallel().forEach(particle -> {
-                        particle.calNeighbors(tree, accuracy);
-                        particle.neighbors.forEach(x -> {
-                            x.action(particle, pq, HZ, t);
-                        });
-                    });
+                /**
+                 * 预测
+                 * 碰撞事件只重新预测 a 和 b
+                 */
+                pq.invalidate(a);
+                pq.invalidate(b);
+
+                for(Particle p : new Particle[]{a, b}){
+                    if(p == null) continue;
+                    if(tree != null) tree.update(p);
+                    if(verlet == null) neighbors.rebuild(p, finder);
                 }
+                predictParticle(a);
+                predictParticle(b);
             }
         }
 
@@ -390,12 +745,42 @@ public class CollisionSystem{
     }
 
     public void calForces(){
+        if(engine != null){
+            store.resetForces();
+            engine.accumulate(particles, this.G);
+            store.changeVelocities(1.0 / HZ);
+            return;
+        }
+
         /**
          * BHT
          */
+        if(opening.isQuadrupole()){
+            if(flatTree != null) flatTree.computeQuadrupoles();
+            else tree.computeQuadrupoles();
+        }
+
+        if(flatTree != null){
+            //按树里的粒子顺序遍历（morton 模式下是 Z 曲线顺序），相邻的粒子访问相邻的节点
+            IntStream.range(0, particles.length).parallel().forEach(i -> {
+                Particle particle = particles[flatTree.order(i)];
+                particle.resetForce();
+                flatTree.updateForce(particle, this.G, opening);
+                particle.changeVelocity(1.0 / HZ);
+            });
+            return;
+        }
+
+        if(groupSize > 0){
+            store.resetForces();
+            tree.updateForceByGroup(this.G, opening, groupSize);
+            store.changeVelocities(1.0 / HZ);
+            return;
+        }
+
         Arrays.stream(particles).parallel().forEach(particle -> {
             particle.resetForce();
-            tree.updateForce(particle, this.G);
+            tree.updateForce(particle, this.G, opening);
             particle.changeVelocity(1.0 / HZ);
         });
     }
@@ -514,6 +899,23 @@ public class CollisionSystem{
         system.myAns = myAns;
 
         system.setParticles(particles);
+        system.setLazyClock(Boolean.getBoolean("lazyClock"));
+        system.setOffHeap(Boolean.getBoolean("offHeap"));
+        system.setPrecision(System.getProperty("precision", "double"));
+        system.setScheduler(System.getProperty("scheduler", "calendar"));
+        system.setBroadPhase(System.getProperty("broadPhase", "verlet"));
+        system.setSkin(Double.parseDouble(System.getProperty("skin", "0")));
+        system.setGravity(System.getProperty("gravity", "tree"));
+        system.setMultipole(Integer.getInteger("multipoleOrder", 4),
+                Double.parseDouble(System.getProperty("multipoleTheta", "0.5")));
+        system.setMeshSize(Integer.getInteger("meshSize", 128));
+        system.setSplitRadius(Double.parseDouble(System.getProperty("splitRadius", "0")));
+        system.setFlatTree(Boolean.getBoolean("flatTree"), Boolean.getBoolean("morton"));
+        system.setForkDepth(Integer.getInteger("forkDepth", 0));
+        system.setLeafCapacity(Integer.getInteger("leafCapacity", 1));
+        system.setGroupSize(Integer.getInteger("groupSize", 0));
+        system.setOpening(new OpeningCriterion(Double.parseDouble(System.getProperty("theta", "2")),
+                Double.parseDouble(System.getProperty("errorTolerance", "0")), Boolean.getBoolean("quadrupole")));
         if(GUI){
             StdDraw.setCanvasSize(600, 600);
             // enable double buffering
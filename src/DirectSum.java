@@ -0,0 +1,168 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 精确的 O(N^2) 直接求和，作为其他引力求解器的精度基准，N 很小（比如三体）时也是最快的。
+ * <p>
+ * 坐标、质量和半径先复制到基本类型数组里，粒子按 BLOCK 个一组分块，
+ * 只计算 I <= J 的块对，每一对粒子算一次，用牛顿第三定律同时加到两边。
+ * 块对按编号平均分给各个线程，每个线程把力累加到自己的缓冲区，最后再按粒子并行地加起来，
+ * 所以线程之间不需要同步。N 小于 PARALLEL_THRESHOLD 时直接在当前线程里算。
+ * 和 Particle.addForceTo 一样，两个粒子重叠时不计引力。
+ * <p>
+ * single 为 true 时（配合 FloatParticleStore）数组和块内的运算都用 float，每块的数据量减半；
+ * 各线程缓冲区的合并和乘 G 仍然按 double。
+ */
+public class DirectSum implements GravityEngine{
+    private static final int BLOCK = 256;                 // 一块的坐标、质量、半径和力放得进 L1
+    private static final int PARALLEL_THRESHOLD = 2048;
+
+    private final int threads = ForkJoinPool.getCommonPoolParallelism() + 1;
+    private final boolean single;
+    private double[] x, y, m, r;
+    private double[][] fx, fy;   // 每个线程一份
+    private float[] xf, yf, mf, rf;
+    private float[][] fxf, fyf;
+
+    public DirectSum(){
+        this(false);
+    }
+
+    public DirectSum(boolean single){
+        this.single = single;
+    }
+
+    @Override
+    public void accumulate(Particle[] particles, double G){
+        int n = particles.length;
+        //没有粒子时没有块对，下面按行查找起点的循环不会结束
+        if(n == 0) return;
+        if(single) loadFloat(particles);
+        else load(particles);
+
+        int blocks = (n + BLOCK - 1) / BLOCK;
+        int pairs = blocks * (blocks + 1) / 2;
+        int workers = n < PARALLEL_THRESHOLD ? 1 : Math.min(threads, pairs);
+        IntStream.range(0, workers).parallel().forEach(w -> {
+            if(single){
+                Arrays.fill(fxf[w], 0, n, 0);
+                Arrays.fill(fyf[w], 0, n, 0);
+            }
+            else{
+                Arrays.fill(fx[w], 0, n, 0);
+                Arrays.fill(fy[w], 0, n, 0);
+            }
+            //第 w 个线程负责编号在 [from, to) 之间的块对，按行 I 展开
+            long from = (long) pairs * w / workers, to = (long) pairs * (w + 1) / workers;
+            int bi = 0;
+            long rowStart = 0;
+            while(rowStart + (blocks - bi) <= from){
+                rowStart += blocks - bi;
+                bi++;
+            }
+            int bj = bi + (int) (from - rowStart);
+            for(long k = from; k < to; k++){
+                int i0 = bi * BLOCK, i1 = Math.min(n, (bi + 1) * BLOCK);
+                int j0 = bj * BLOCK, j1 = Math.min(n, (bj + 1) * BLOCK);
+                if(single) block(i0, i1, j0, j1, fxf[w], fyf[w]);
+                else block(i0, i1, j0, j1, fx[w], fy[w]);
+                if(++bj == blocks){
+                    bi++;
+                    bj = bi;
+                }
+            }
+        });
+
+        IntStream.range(0, n).parallel().forEach(i -> {
+            double sx = 0, sy = 0;
+            for(int w = 0; w < workers; w++){
+                sx += single ? fxf[w][i] : fx[w][i];
+                sy += single ? fyf[w][i] : fy[w][i];
+            }
+            particles[i].addForce(G * sx, G * sy);
+        });
+    }
+
+    private void load(Particle[] particles){
+        int n = particles.length;
+        if(x == null || x.length < n){
+            x = new double[n];
+            y = new double[n];
+            m = new double[n];
+            r = new double[n];
+            fx = new double[threads][n];
+            fy = new double[threads][n];
+        }
+        for(int i = 0; i < n; i++){
+            x[i] = particles[i].getRx();
+            y[i] = particles[i].getRy();
+            m[i] = particles[i].getMass();
+            r[i] = particles[i].getRadius();
+        }
+    }
+
+    private void loadFloat(Particle[] particles){
+        int n = particles.length;
+        if(xf == null || xf.length < n){
+            xf = new float[n];
+            yf = new float[n];
+            mf = new float[n];
+            rf = new float[n];
+            fxf = new float[threads][n];
+            fyf = new float[threads][n];
+        }
+        for(int i = 0; i < n; i++){
+            xf[i] = (float) particles[i].getRx();
+            yf[i] = (float) particles[i].getRy();
+            mf[i] = (float) particles[i].getMass();
+            rf[i] = (float) particles[i].getRadius();
+        }
+    }
+
+    //粒子 [i0, i1) 和 [j0, j1) 之间的引力（不乘 G），同一块时只算 i < j
+    private void block(int i0, int i1, int j0, int j1, double[] gx, double[] gy){
+        for(int i = i0; i < i1; i++){
+            double xi = x[i], yi = y[i], mi = m[i], ri = r[i];
+            double sx = 0, sy = 0;
+            for(int j = i0 == j0 ? i + 1 : j0; j < j1; j++){
+                double dx = x[j] - xi;
+                double dy = y[j] - yi;
+                double d2 = dx * dx + dy * dy;
+                double d = Math.sqrt(d2);
+                if(d > ri + r[j]){
+                    double f = mi * m[j] / (d2 * d);
+                    sx += f * dx;
+                    sy += f * dy;
+                    gx[j] -= f * dx;
+                    gy[j] -= f * dy;
+                }
+            }
+            gx[i] += sx;
+            gy[i] += sy;
+        }
+    }
+
+    //和上面相同，单精度
+    private void block(int i0, int i1, int j0, int j1, float[] gx, float[] gy){
+        for(int i = i0; i < i1; i++){
+            float xi = xf[i], yi = yf[i], mi = mf[i], ri = rf[i];
+            float sx = 0, sy = 0;
+            for(int j = i0 == j0 ? i + 1 : j0; j < j1; j++){
+                float dx = xf[j] - xi;
+                float dy = yf[j] - yi;
+                float d2 = dx * dx + dy * dy;
+                float d = (float) Math.sqrt(d2);
+                if(d > ri + rf[j]){
+                    float f = mi * mf[j] / (d2 * d);
+                    sx += f * dx;
+                    sy += f * dy;
+                    gx[j] -= f * dx;
+                    gy[j] -= f * dy;
+                }
+            }
+            gx[i] += sx;
+            gy[i] += sy;
+        }
+    }
+}
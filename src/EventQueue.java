@@ -0,0 +1,21 @@
+//碰撞事件队列的统一接口，simulate 只通过它来调度事件
+public interface EventQueue{
+
+    void add(Event e);
+
+    // 取出时间最早的事件
+    Event remove();
+
+    boolean isEmpty();
+
+    int size();
+
+    void clear();
+
+    // 粒子的速度改变后，丢弃与它相关的已排队事件（不支持的实现可以忽略）
+    void invalidate(Particle p);
+
+    // 是否每个粒子只保留最早的一个事件
+    // 为 true 时，过期事件出队后需要为其中的粒子重新预测
+    boolean keepsOnlyNextEvent();
+}
@@ -0,0 +1,62 @@
+import java.util.stream.IntStream;
+
+/**
+ * 原地的基 2 复数 FFT，实部和虚部分开存放在两个 double 数组里，长度必须是 2 的幂。
+ * 二维变换先对每一行做一维变换，再对每一列做，行和列之间互不相关，可以并行。
+ */
+public class FFT{
+
+    private FFT(){
+    }
+
+    //对 re/im 中从 offset 开始、间隔 stride 的 n 个元素做变换，inverse 时结果除以 n
+    public static void transform(double[] re, double[] im, int offset, int stride, int n, boolean inverse){
+        //位反转重排
+        for(int i = 1, j = 0; i < n; i++){
+            int bit = n >> 1;
+            for(; (j & bit) != 0; bit >>= 1) j ^= bit;
+            j ^= bit;
+            if(i < j){
+                int a = offset + i * stride, b = offset + j * stride;
+                double tr = re[a], ti = im[a];
+                re[a] = re[b];
+                im[a] = im[b];
+                re[b] = tr;
+                im[b] = ti;
+            }
+        }
+
+        for(int len = 2; len <= n; len <<= 1){
+            double angle = (inverse ? 2 : -2) * Math.PI / len;
+            double wr = Math.cos(angle), wi = Math.sin(angle);
+            for(int i = 0; i < n; i += len){
+                double cr = 1, ci = 0;
+                for(int k = 0; k < len / 2; k++){
+                    int a = offset + (i + k) * stride, b = offset + (i + k + len / 2) * stride;
+                    double xr = re[b] * cr - im[b] * ci;
+                    double xi = re[b] * ci + im[b] * cr;
+                    re[b] = re[a] - xr;
+                    im[b] = im[a] - xi;
+                    re[a] += xr;
+                    im[a] += xi;
+                    double nr = cr * wr - ci * wi;
+                    ci = cr * wi + ci * wr;
+                    cr = nr;
+                }
+            }
+        }
+
+        if(inverse){
+            for(int i = 0; i < n; i++){
+                re[offset + i * stride] /= n;
+                im[offset + i * stride] /= n;
+            }
+        }
+    }
+
+    //n * n 的二维变换，按行存放
+    public static void transform2d(double[] re, double[] im, int n, boolean inverse){
+        IntStream.range(0, n).parallel().forEach(row -> transform(re, im, row * n, 1, n, inverse));
+        IntStream.range(0, n).parallel().forEach(col -> transform(re, im, col, n, n, inverse));
+    }
+}
@@ -0,0 +1,378 @@
+import java.util.Arrays;
+
+/**
+ * 快速多极子方法（FMM）求引力，复杂度 O(N)。
+ * <p>
+ * 粒子的引力是 1/r^2（三维引力限制在平面上），势函数 1/r 在平面上不是调和函数，
+ * 所以不能用二维 FMM 的复变量（log 势）展开，这里用笛卡尔坐标的 Taylor 展开，
+ * 多重指标 a = (ax, ay)，阶数 |a| = ax + ay <= order：
+ * <ul>
+ *     <li>多极矩 M_a = sum m (x - c)^a，c 是节点的质心</li>
+ *     <li>局部展开 Phi(y) = sum L_b (y - z)^b，z 是目标节点的质心</li>
+ *     <li>T_k(R) = (-1)^|k| D^k (1/|R|) / k! 用递推计算：
+ *     |k| R^2 T_k = (2|k| - 1) (Rx T_{k-ex} + Ry T_{k-ey}) - (|k| - 1) (T_{k-2ex} + T_{k-2ey})</li>
+ *     <li>M2L：L_b += (-1)^|b| sum_a C(a + b, a) M_a T_{a+b}(z - c)</li>
+ * </ul>
+ * 四叉树和 Barnes-Hut 一样按 Quad 的四个象限划分，叶子最多 LEAF_SIZE 个粒子。
+ * 两个节点的相互作用用双树遍历：(rA + rB) < theta * d 时互相做一次 M2L，
+ * 否则拆开半径较大的节点，两个都是叶子时直接求和。最后自顶向下 L2L，在叶子里 L2P。
+ * 直接求和和 Particle.addForceTo 一样，两个粒子重叠时不计引力。
+ */
+public class FastMultipole implements GravityEngine{
+    private static final int LEAF_SIZE = 16;
+    private static final int MAX_DEPTH = 48;   // 重合的粒子不再继续分裂
+
+    private final Quad quad;
+    private final int order;
+    private final double theta;
+    private final int terms;            // |a| <= order 的多重指标个数
+    private final int[] ax, ay;         // 第 i 项的多重指标
+    private final double[][] binomial;
+
+    private Particle[] source;
+    private int n;
+    private int[] ids, tmpIds;          // 按节点排好的粒子 id
+    private double[] px, py, pm, pr;    // 按 ids 顺序复制的坐标、质量、半径
+    private double[] fx, fy;
+
+    private int size;                   // 已使用的节点数
+    private int[] start, end;           // 节点中粒子在 ids 里的区间
+    private int[] child;                // 4 * node + k，-1 表示没有这个子节点
+    private boolean[] leaf;
+    private double[] mass, comX, comY, radius;
+    private double[] multipole, local;  // 每个节点 terms 项
+
+    private final double[] t;           // M2L 用的 T_k(R)
+    private final double[] powX, powY;
+
+    public FastMultipole(Quad quad, int order, double theta){
+        this.quad = quad;
+        this.order = order;
+        this.theta = theta;
+        this.terms = (order + 1) * (order + 2) / 2;
+        this.ax = new int[terms];
+        this.ay = new int[terms];
+        for(int k = 0; k <= order; k++){
+            for(int j = 0; j <= k; j++){
+                ax[index(k - j, j)] = k - j;
+                ay[index(k - j, j)] = j;
+            }
+        }
+        this.binomial = new double[order + 1][order + 1];
+        for(int i = 0; i <= order; i++){
+            binomial[i][0] = 1;
+            for(int j = 1; j <= i; j++) binomial[i][j] = binomial[i - 1][j - 1] + (j < i ? binomial[i - 1][j] : 0);
+        }
+        this.t = new double[terms];
+        this.powX = new double[order + 1];
+        this.powY = new double[order + 1];
+        allocate(64);
+    }
+
+    //多重指标 (x, y) 的下标，按阶数排列
+    private static int index(int x, int y){
+        int k = x + y;
+        return k * (k + 1) / 2 + y;
+    }
+
+    private void allocate(int capacity){
+        start = new int[capacity];
+        end = new int[capacity];
+        child = new int[4 * capacity];
+        leaf = new boolean[capacity];
+        mass = new double[capacity];
+        comX = new double[capacity];
+        comY = new double[capacity];
+        radius = new double[capacity];
+        multipole = new double[capacity * terms];
+        local = new double[capacity * terms];
+    }
+
+    private void grow(){
+        int capacity = 2 * start.length;
+        start = Arrays.copyOf(start, capacity);
+        end = Arrays.copyOf(end, capacity);
+        child = Arrays.copyOf(child, 4 * capacity);
+        leaf = Arrays.copyOf(leaf, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        comX = Arrays.copyOf(comX, capacity);
+        comY = Arrays.copyOf(comY, capacity);
+        radius = Arrays.copyOf(radius, capacity);
+        multipole = Arrays.copyOf(multipole, capacity * terms);
+        local = Arrays.copyOf(local, capacity * terms);
+    }
+
+    @Override
+    public void accumulate(Particle[] particles, double G){
+        if(particles.length == 0) return;
+        load(particles);
+
+        size = 0;
+        build(0, n, quad.getXmid(), quad.getYmid(), quad.getLength(), 0);
+        for(int i = 0; i < n; i++){
+            Particle p = particles[ids[i]];
+            px[i] = p.getRx();
+            py[i] = p.getRy();
+            pm[i] = p.getMass();
+            pr[i] = p.getRadius();
+        }
+        upward(0);
+        interact(0, 0);
+        downward(0);
+
+        for(int i = 0; i < n; i++){
+            particles[ids[i]].addForce(G * fx[i], G * fy[i]);
+        }
+    }
+
+    private void load(Particle[] particles){
+        if(ids == null || ids.length < particles.length){
+            int capacity = particles.length;
+            ids = new int[capacity];
+            tmpIds = new int[capacity];
+            px = new double[capacity];
+            py = new double[capacity];
+            pm = new double[capacity];
+            pr = new double[capacity];
+            fx = new double[capacity];
+            fy = new double[capacity];
+        }
+        source = particles;
+        n = particles.length;
+        for(int i = 0; i < n; i++) ids[i] = i;
+        Arrays.fill(fx, 0, n, 0);
+        Arrays.fill(fy, 0, n, 0);
+    }
+
+    //把 ids[from, to) 按象限分到子节点，返回节点下标
+    private int build(int from, int to, double x, double y, double len, int depth){
+        if(size == start.length) grow();
+        int node = size++;
+        start[node] = from;
+        end[node] = to;
+        Arrays.fill(child, 4 * node, 4 * node + 4, -1);
+        leaf[node] = to - from <= LEAF_SIZE || depth >= MAX_DEPTH;
+        if(leaf[node]){
+            return node;
+        }
+
+        //计数排序：0 NW, 1 NE, 2 SE, 3 SW，和 BarnesHutTree.quadrant 的顺序一致
+        int[] count = new int[5];
+        for(int i = from; i < to; i++) count[quadrant(ids[i], x, y) + 1]++;
+        for(int k = 0; k < 4; k++) count[k + 1] += count[k];
+        int[] offset = Arrays.copyOf(count, 4);
+        for(int i = from; i < to; i++) tmpIds[from + offset[quadrant(ids[i], x, y)]++] = ids[i];
+        System.arraycopy(tmpIds, from, ids, from, to - from);
+
+        double q = len / 4;
+        double[] cx = {x - q, x + q, x + q, x - q};
+        double[] cy = {y + q, y + q, y - q, y - q};
+        for(int k = 0; k < 4; k++){
+            if(count[k + 1] > count[k]){
+                int c = build(from + count[k], from + count[k + 1], cx[k], cy[k], len / 2, depth + 1);
+                child[4 * node + k] = c;
+            }
+        }
+        return node;
+    }
+
+    private int quadrant(int id, double x, double y){
+        Particle p = source[id];
+        if(p.getRy() >= y) return p.getRx() < x ? 0 : 1;
+        return p.getRx() < x ? 3 : 2;
+    }
+
+    //自底向上：叶子 P2M，内部节点 M2M，同时求质心和包住所有粒子的半径
+    private void upward(int node){
+        Arrays.fill(multipole, node * terms, (node + 1) * terms, 0);
+        Arrays.fill(local, node * terms, (node + 1) * terms, 0);
+        double m = 0, mx = 0, my = 0;
+        if(leaf[node]){
+            for(int i = start[node]; i < end[node]; i++){
+                m += pm[i];
+                mx += pm[i] * px[i];
+                my += pm[i] * py[i];
+            }
+        }
+        else{
+            for(int k = 0; k < 4; k++){
+                int c = child[4 * node + k];
+                if(c < 0) continue;
+                upward(c);
+                m += mass[c];
+                mx += mass[c] * comX[c];
+                my += mass[c] * comY[c];
+            }
+        }
+        mass[node] = m;
+        comX[node] = m > 0 ? mx / m : 0;
+        comY[node] = m > 0 ? my / m : 0;
+
+        double r = 0;
+        int base = node * terms;
+        if(leaf[node]){
+            for(int i = start[node]; i < end[node]; i++){
+                double dx = px[i] - comX[node];
+                double dy = py[i] - comY[node];
+                r = Math.max(r, Math.sqrt(dx * dx + dy * dy));
+                powers(dx, dy);
+                for(int a = 0; a < terms; a++) multipole[base + a] += pm[i] * powX[ax[a]] * powY[ay[a]];
+            }
+        }
+        else{
+            for(int k = 0; k < 4; k++){
+                int c = child[4 * node + k];
+                if(c < 0) continue;
+                double dx = comX[c] - comX[node];
+                double dy = comY[c] - comY[node];
+                r = Math.max(r, radius[c] + Math.sqrt(dx * dx + dy * dy));
+                powers(dx, dy);
+                int from = c * terms;
+                for(int a = 0; a < terms; a++){
+                    double sum = 0;
+                    for(int kx = 0; kx <= ax[a]; kx++){
+                        for(int ky = 0; ky <= ay[a]; ky++){
+                            sum += binomial[ax[a]][kx] * binomial[ay[a]][ky] * multipole[from + index(kx, ky)]
+                                    * powX[ax[a] - kx] * powY[ay[a] - ky];
+                        }
+                    }
+                    multipole[base + a] += sum;
+                }
+            }
+        }
+        radius[node] = r;
+    }
+
+    private void powers(double dx, double dy){
+        powX[0] = 1;
+        powY[0] = 1;
+        for(int k = 1; k <= order; k++){
+            powX[k] = powX[k - 1] * dx;
+            powY[k] = powY[k - 1] * dy;
+        }
+    }
+
+    //双树遍历，a == b 时求节点内部的相互作用
+    private void interact(int a, int b){
+        if(a == b){
+            if(leaf[a]){
+                direct(a, a);
+                return;
+            }
+            for(int i = 0; i < 4; i++){
+                int ci = child[4 * a + i];
+                if(ci < 0) continue;
+                for(int j = i; j < 4; j++){
+                    int cj = child[4 * a + j];
+                    if(cj >= 0) interact(ci, cj);
+                }
+            }
+            return;
+        }
+
+        double dx = comX[b] - comX[a];
+        double dy = comY[b] - comY[a];
+        double d = Math.sqrt(dx * dx + dy * dy);
+        if(radius[a] + radius[b] < theta * d){
+            multipoleToLocal(a, b, dx, dy);
+            return;
+        }
+        if(leaf[a] && leaf[b]){
+            direct(a, b);
+            return;
+        }
+
+        //拆开半径较大的一边
+        int split = leaf[b] || (!leaf[a] && radius[a] >= radius[b]) ? a : b;
+        int other = split == a ? b : a;
+        for(int k = 0; k < 4; k++){
+            int c = child[4 * split + k];
+            if(c >= 0) interact(c, other);
+        }
+    }
+
+    //节点 a、b 之间互相直接求和；a == b 时只算不同的粒子对
+    private void direct(int a, int b){
+        for(int i = start[a]; i < end[a]; i++){
+            for(int j = a == b ? i + 1 : start[b]; j < end[b]; j++){
+                double dx = px[j] - px[i];
+                double dy = py[j] - py[i];
+                double r = Math.sqrt(dx * dx + dy * dy);
+                if(r > pr[i] + pr[j]){
+                    double f = pm[i] * pm[j] / (r * r * r);
+                    fx[i] += f * dx;
+                    fy[i] += f * dy;
+                    fx[j] -= f * dx;
+                    fy[j] -= f * dy;
+                }
+            }
+        }
+    }
+
+    //R = comB - comA，a 的多极矩进入 b 的局部展开，b 的进入 a 的；T_k(-R) = (-1)^|k| T_k(R)
+    private void multipoleToLocal(int a, int b, double rx, double ry){
+        double r2 = rx * rx + ry * ry;
+        t[0] = 1 / Math.sqrt(r2);
+        for(int k = 1; k <= order; k++){
+            for(int j = 0; j <= k; j++){
+                int x = k - j, y = j;
+                double sum = 0;
+                if(x >= 1) sum += (2 * k - 1) * rx * t[index(x - 1, y)];
+                if(y >= 1) sum += (2 * k - 1) * ry * t[index(x, y - 1)];
+                if(x >= 2) sum -= (k - 1) * t[index(x - 2, y)];
+                if(y >= 2) sum -= (k - 1) * t[index(x, y - 2)];
+                t[index(x, y)] = sum / (k * r2);
+            }
+        }
+
+        int baseA = a * terms, baseB = b * terms;
+        for(int q = 0; q < terms; q++){
+            int bx = ax[q], by = ay[q];
+            double toB = 0, toA = 0;
+            for(int p = 0; p < terms; p++){
+                if(ax[p] + ay[p] + bx + by > order) break;
+                double c = binomial[ax[p] + bx][bx] * binomial[ay[p] + by][by] * t[index(ax[p] + bx, ay[p] + by)];
+                toB += c * multipole[baseA + p];
+                toA += ((ax[p] + ay[p]) % 2 == 0 ? c : -c) * multipole[baseB + p];
+            }
+            local[baseB + q] += (bx + by) % 2 == 0 ? toB : -toB;
+            local[baseA + q] += toA;
+        }
+    }
+
+    //自顶向下：L2L 把父节点的局部展开移到子节点的质心，叶子里 L2P 求梯度
+    private void downward(int node){
+        int base = node * terms;
+        if(leaf[node]){
+            for(int i = start[node]; i < end[node]; i++){
+                powers(px[i] - comX[node], py[i] - comY[node]);
+                double gx = 0, gy = 0;
+                for(int q = 0; q < terms; q++){
+                    double l = local[base + q];
+                    if(ax[q] > 0) gx += l * ax[q] * powX[ax[q] - 1] * powY[ay[q]];
+                    if(ay[q] > 0) gy += l * ay[q] * powX[ax[q]] * powY[ay[q] - 1];
+                }
+                //a = G grad(sum m / r)
+                fx[i] += pm[i] * gx;
+                fy[i] += pm[i] * gy;
+            }
+            return;
+        }
+        for(int k = 0; k < 4; k++){
+            int c = child[4 * node + k];
+            if(c < 0) continue;
+            powers(comX[c] - comX[node], comY[c] - comY[node]);
+            int to = c * terms;
+            for(int q = 0; q < terms; q++){
+                double sum = 0;
+                for(int p = 0; p < terms; p++){
+                    if(ax[p] < ax[q] || ay[p] < ay[q]) continue;
+                    sum += local[base + p] * binomial[ax[p]][ax[q]] * binomial[ay[p]][ay[q]]
+                            * powX[ax[p] - ax[q]] * powY[ay[p] - ay[q]];
+                }
+                local[to + q] += sum;
+            }
+            downward(c);
+        }
+    }
+}
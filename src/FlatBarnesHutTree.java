@@ -0,0 +1,395 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 线性化的 Barnes-Hut 树：所有节点存放在并行的基本类型数组里，节点之间用下标相连。
+ * 分裂时一次分配 4 个连续的子节点，child[node] 指向第一个（NW, NE, SE, SW 的顺序），-1 表示叶子。
+ * 数组只在容量不够时才扩大，之后每次 build 都重复使用，所以建树、updateForce、find 和
+ * findNeighbor 都不分配对象。
+ * <p>
+ * morton 模式下不再逐个 insert：先按 Quad 坐标算出每个粒子的 Morton 码（Z 曲线），
+ * 用并行基数排序排好，再按排好的区间递归切分生成节点，质量和质心自底向上汇总。
+ * 节点按 Z 曲线的顺序排列，order() 给出排序后的粒子顺序，按这个顺序遍历粒子时相邻粒子访问的节点也相邻。
+ */
+public class FlatBarnesHutTree{
+    private static final int MAX_DEPTH = 48;   // 重合的粒子不再继续分裂
+    private static final int KEY_LEVELS = 16;  // Morton 码每个坐标 16 位，对应 16 层
+    private static final int PARALLEL_SORT_THRESHOLD = 1 << 13;
+    // Morton 码的两位 (y, x) 对应的子节点：00 -> SW, 01 -> SE, 10 -> NW, 11 -> NE
+    private static final int[] DIGIT_TO_QUADRANT = {3, 2, 0, 1};
+
+    private Particle[] particles;
+    private int size;             // 已使用的节点数
+
+    private double[] xmid, ymid, length;
+    private double[] mass, comX, comY;   // 子树的总质量和质心
+    private double[] qxx, qxy, qyy;      // 子树关于质心的四极矩，由 computeQuadrupoles 计算
+    private int[] child;          // 第一个子节点的下标，-1 表示叶子
+    private int[] body;           // 叶子中第一个粒子的 id，-1 表示空叶子
+    private int[] next = new int[0];   // 按粒子 id：同一叶子中的下一个粒子，-1 表示没有（只有重合的粒子会共用叶子）
+
+    private final boolean morton;
+    private int[] keys, ids;      // 排好序的 Morton 码和对应的粒子 id
+    private int[] tmpKeys, tmpIds;
+    private int[] counts;         // 基数排序每个分块的计数
+    private double[] sortedX, sortedY, sortedM;
+
+    public FlatBarnesHutTree(){
+        this(false);
+    }
+
+    public FlatBarnesHutTree(boolean morton){
+        this.morton = morton;
+        allocate(64);
+    }
+
+    private void allocate(int capacity){
+        xmid = new double[capacity];
+        ymid = new double[capacity];
+        length = new double[capacity];
+        mass = new double[capacity];
+        comX = new double[capacity];
+        comY = new double[capacity];
+        qxx = new double[capacity];
+        qxy = new double[capacity];
+        qyy = new double[capacity];
+        child = new int[capacity];
+        body = new int[capacity];
+    }
+
+    private void grow(){
+        int capacity = 2 * xmid.length;
+        xmid = Arrays.copyOf(xmid, capacity);
+        ymid = Arrays.copyOf(ymid, capacity);
+        length = Arrays.copyOf(length, capacity);
+        mass = Arrays.copyOf(mass, capacity);
+        comX = Arrays.copyOf(comX, capacity);
+        comY = Arrays.copyOf(comY, capacity);
+        qxx = Arrays.copyOf(qxx, capacity);
+        qxy = Arrays.copyOf(qxy, capacity);
+        qyy = Arrays.copyOf(qyy, capacity);
+        child = Arrays.copyOf(child, capacity);
+        body = Arrays.copyOf(body, capacity);
+    }
+
+    private int newNode(double x, double y, double len){
+        if(size == xmid.length) grow();
+        int node = size++;
+        xmid[node] = x;
+        ymid[node] = y;
+        length[node] = len;
+        mass[node] = 0;
+        comX[node] = 0;
+        comY[node] = 0;
+        child[node] = -1;
+        body[node] = -1;
+        return node;
+    }
+
+    //粒子的 id 必须是它在 particles 中的下标
+    public void build(Particle[] particles, Quad q){
+        this.particles = particles;
+        this.size = 0;
+        if(next.length < particles.length) next = new int[particles.length];
+        newNode(q.getXmid(), q.getYmid(), q.getLength());
+        if(morton){
+            buildMorton(q);
+            return;
+        }
+        for(Particle p : particles){
+            insert(p);
+        }
+    }
+
+    //第 i 个（按 Morton 码排序后）粒子的 id；非 morton 模式下就是 i
+    public int order(int i){
+        return morton ? ids[i] : i;
+    }
+
+    private void buildMorton(Quad q){
+        int n = particles.length;
+        if(keys == null || keys.length < n){
+            keys = new int[n];
+            ids = new int[n];
+            tmpKeys = new int[n];
+            tmpIds = new int[n];
+            sortedX = new double[n];
+            sortedY = new double[n];
+            sortedM = new double[n];
+        }
+
+        double x0 = q.getXmid() - q.getLength() / 2.0;
+        double y0 = q.getYmid() - q.getLength() / 2.0;
+        double scale = (1 << KEY_LEVELS) / q.getLength();
+        IntStream.range(0, n).parallel().forEach(i -> {
+            Particle p = particles[i];
+            keys[i] = mortonKey(cell(p.getRx(), x0, scale), cell(p.getRy(), y0, scale));
+            ids[i] = i;
+        });
+
+        radixSort(n);
+
+        IntStream.range(0, n).parallel().forEach(i -> {
+            Particle p = particles[ids[i]];
+            sortedX[i] = p.getRx();
+            sortedY[i] = p.getRy();
+            sortedM[i] = p.getMass();
+        });
+
+        if(n > 0) buildRange(0, 0, n, 0);
+    }
+
+    private static int cell(double x, double origin, double scale){
+        int c = (int) Math.floor((x - origin) * scale);
+        return Math.max(0, Math.min((1 << KEY_LEVELS) - 1, c));
+    }
+
+    //把 x 和 y 的各位交错：第 2k 位来自 x，第 2k+1 位来自 y
+    private static int mortonKey(int x, int y){
+        return spread(x) | (spread(y) << 1);
+    }
+
+    private static int spread(int v){
+        v &= 0xFFFF;
+        v = (v | (v << 8)) & 0x00FF00FF;
+        v = (v | (v << 4)) & 0x0F0F0F0F;
+        v = (v | (v << 2)) & 0x33333333;
+        v = (v | (v << 1)) & 0x55555555;
+        return v;
+    }
+
+    //LSD 基数排序，每趟 8 位。数组分块后并行统计和分发，同一个数字内保持分块的先后顺序，所以排序是稳定的
+    private void radixSort(int n){
+        int chunks = (n < PARALLEL_SORT_THRESHOLD) ? 1 : 4 * ForkJoinPool.getCommonPoolParallelism();
+        int chunkSize = (n + chunks - 1) / chunks;
+        if(counts == null || counts.length < chunks * 256){
+            counts = new int[chunks * 256];
+        }
+
+        for(int shift = 0; shift < 32; shift += 8){
+            final int sh = shift;
+            final int[] srcKeys = keys, srcIds = ids, dstKeys = tmpKeys, dstIds = tmpIds;
+            final int[] count = counts;
+
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int base = c * 256;
+                Arrays.fill(count, base, base + 256, 0);
+                int end = Math.min(n, (c + 1) * chunkSize);
+                for(int i = c * chunkSize; i < end; i++){
+                    count[base + ((srcKeys[i] >>> sh) & 0xFF)]++;
+                }
+            });
+
+            //把计数换成每个 (数字, 分块) 的起始位置
+            int offset = 0;
+            for(int d = 0; d < 256; d++){
+                for(int c = 0; c < chunks; c++){
+                    int k = count[c * 256 + d];
+                    count[c * 256 + d] = offset;
+                    offset += k;
+                }
+            }
+
+            IntStream.range(0, chunks).parallel().forEach(c -> {
+                int base = c * 256;
+                int end = Math.min(n, (c + 1) * chunkSize);
+                for(int i = c * chunkSize; i < end; i++){
+                    int to = count[base + ((srcKeys[i] >>> sh) & 0xFF)]++;
+                    dstKeys[to] = srcKeys[i];
+                    dstIds[to] = srcIds[i];
+                }
+            });
+
+            keys = dstKeys;
+            ids = dstIds;
+            tmpKeys = srcKeys;
+            tmpIds = srcIds;
+        }
+    }
+
+    //[lo, hi) 是落在 node 内的粒子（按 Morton 码排好序），level 是 node 的深度
+    private void buildRange(int node, int lo, int hi, int level){
+        if(hi - lo == 1 || level == KEY_LEVELS){
+            //最后一层的格子里可能有多个粒子，串成一条链
+            body[node] = ids[lo];
+            for(int i = lo; i < hi; i++){
+                next[ids[i]] = i + 1 < hi ? ids[i + 1] : -1;
+                addMass(node, sortedX[i], sortedY[i], sortedM[i]);
+            }
+            return;
+        }
+
+        split(node);
+        int first = child[node];
+        int shift = 2 * (KEY_LEVELS - 1 - level);
+        for(int d = 0; d < 4; d++){
+            //区间内更高的位都相同，这两位是单调的，二分找到数字 d 的结尾
+            int end = lo, right = hi;
+            while(end < right){
+                int mid = (end + right) >>> 1;
+                if(((keys[mid] >>> shift) & 3) <= d) end = mid + 1;
+                else right = mid;
+            }
+            if(end > lo) buildRange(first + DIGIT_TO_QUADRANT[d], lo, end, level + 1);
+            lo = end;
+        }
+
+        //自底向上汇总子节点的质量和质心
+        for(int k = 0; k < 4; k++){
+            if(mass[first + k] != 0) addMass(node, comX[first + k], comY[first + k], mass[first + k]);
+        }
+    }
+
+    // 0 = NW, 1 = NE, 2 = SE, 3 = SW，和 BarnesHutTree 的顺序一致
+    private int quadrant(int node, double x, double y){
+        if(y >= ymid[node]) return (x < xmid[node]) ? 0 : 1;
+        else return (x < xmid[node]) ? 3 : 2;
+    }
+
+    private void split(int node){
+        double h = length[node] / 2.0;
+        double d = length[node] / 4.0;
+        // newNode 可能扩容，先把需要的值取出来
+        double x = xmid[node];
+        double y = ymid[node];
+        int first = newNode(x - d, y + d, h);
+        newNode(x + d, y + d, h);
+        newNode(x + d, y - d, h);
+        newNode(x - d, y - d, h);
+        child[node] = first;
+    }
+
+    private void addMass(int node, double x, double y, double m){
+        double total = mass[node] + m;
+        comX[node] = (comX[node] * mass[node] + x * m) / total;
+        comY[node] = (comY[node] * mass[node] + y * m) / total;
+        mass[node] = total;
+    }
+
+    public void insert(Particle p){
+        double x = p.getRx();
+        double y = p.getRy();
+        double m = p.getMass();
+        int node = 0;
+        for(int depth = 0; ; depth++){
+            if(child[node] < 0){
+                if(body[node] < 0 && mass[node] == 0){
+                    body[node] = p.getId();
+                    next[p.getId()] = -1;
+                    addMass(node, x, y, m);
+                    return;
+                }
+                if(depth >= MAX_DEPTH){
+                    //与已有粒子几乎重合：不再分裂，挂到这个叶子的链表头上
+                    next[p.getId()] = body[node];
+                    body[node] = p.getId();
+                    addMass(node, x, y, m);
+                    return;
+                }
+                //叶子里已经有一个粒子，分裂后把它放进对应的子节点
+                Particle c = particles[body[node]];
+                split(node);
+                int to = child[node] + quadrant(node, c.getRx(), c.getRy());
+                body[to] = body[node];
+                addMass(to, c.getRx(), c.getRy(), c.getMass());
+                body[node] = -1;
+            }
+            addMass(node, x, y, m);
+            node = child[node] + quadrant(node, x, y);
+        }
+    }
+
+    //子节点的下标总是大于父节点，倒序遍历就是自底向上；叶子只有一个粒子（或重合的粒子），四极矩为 0
+    public void computeQuadrupoles(){
+        for(int node = size - 1; node >= 0; node--){
+            qxx[node] = 0;
+            qxy[node] = 0;
+            qyy[node] = 0;
+            if(child[node] < 0) continue;
+            int first = child[node];
+            for(int k = first; k < first + 4; k++){
+                if(mass[k] == 0) continue;
+                double dx = comX[k] - comX[node];
+                double dy = comY[k] - comY[node];
+                double d2 = dx * dx + dy * dy;
+                qxx[node] += qxx[k] + mass[k] * (3 * dx * dx - d2);
+                qxy[node] += qxy[k] + mass[k] * 3 * dx * dy;
+                qyy[node] += qyy[k] + mass[k] * (3 * dy * dy - d2);
+            }
+        }
+    }
+
+    public void updateForce(Particle b, double g){
+        updateForce(0, b, g, OpeningCriterion.DEFAULT, b.getAcceleration());
+    }
+
+    public void updateForce(Particle b, double g, OpeningCriterion opening){
+        updateForce(0, b, g, opening, b.getAcceleration());
+    }
+
+    private void updateForce(int node, Particle b, double g, OpeningCriterion opening, double aOld){
+        if(mass[node] == 0) return;
+        if(child[node] < 0){
+            int id = body[node];
+            if(next[id] < 0){
+                if(id != b.getId()) b.addForceTo(comX[node], comY[node], mass[node], particles[id].getRadius(), g);
+            }
+            else{
+                //重合的粒子逐个计算
+                for(; id >= 0; id = next[id]){
+                    if(id != b.getId()) b.addForceTo(particles[id], g);
+                }
+            }
+            return;
+        }
+        double dx = comX[node] - b.getRx();
+        double dy = comY[node] - b.getRy();
+        boolean inside = Quad.testContain(b.getRx(), b.getRy(), xmid[node], length[node], ymid[node]);
+        if(opening.accept(length[node], mass[node], Math.sqrt(dx * dx + dy * dy), inside, aOld, g)){
+            b.addForceTo(comX[node], comY[node], mass[node], 0, g);
+            if(opening.isQuadrupole()) b.addQuadrupoleForceTo(comX[node], comY[node], qxx[node], qxy[node], qyy[node], g);
+        }
+        else{
+            int first = child[node];
+            for(int k = 0; k < 4; k++){
+                updateForce(first + k, b, g, opening, aOld);
+            }
+        }
+    }
+
+    //返回该粒子所在的叶子节点下标
+    public int find(Particle p){
+        int node = 0;
+        while(child[node] >= 0){
+            node = child[node] + quadrant(node, p.getRx(), p.getRy());
+        }
+        return node;
+    }
+
+    //判断是否是相邻区域或相互包含的区域
+    private boolean adjacent(int node, int that, int accuracy){
+        double d = 0.5 * length[node] + accuracy * 0.5 * length[that];
+        return (Math.abs(xmid[node] - xmid[that]) <= d) && (Math.abs(ymid[node] - ymid[that]) <= d);
+    }
+
+    //寻找临近粒子，结果追加到 row 中
+    public void findNeighbor(int leaf, int accuracy, NeighborTable.Row row){
+        findNeighbor(0, leaf, accuracy, row);
+    }
+
+    private void findNeighbor(int node, int leaf, int accuracy, NeighborTable.Row row){
+        if(child[node] < 0){
+            for(int id = body[node]; id >= 0; id = next[id]){
+                row.add(id);
+            }
+            return;
+        }
+        int first = child[node];
+        for(int k = 0; k < 4; k++){
+            if(mass[first + k] != 0 && adjacent(first + k, leaf, accuracy)){
+                findNeighbor(first + k, leaf, accuracy, row);
+            }
+        }
+    }
+}
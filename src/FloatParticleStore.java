@@ -0,0 +1,200 @@
+import java.util.stream.IntStream;
+
+/**
+ * 单精度的 ParticleStore：位置、速度、力、加速度、半径和质量每个量一个 float[]，内存和带宽只有 HeapParticleStore 的一半，
+ * 用于 randomGenerated3 以上规模、不需要双精度的探索性运行。
+ * <p>
+ * 对误差敏感的量仍然是 double：惰性时钟 t 和事件时间（timeToHit 读出 float 后按 double 计算），
+ * 树节点的质心和总质量、网格和多极子的中间量也都按 double 累加，只有存回这里时才舍入到 float。
+ * 移动时按 double 算 r + v dt 再舍入，坐标约 100 时位置的舍入误差约 4e-6。
+ * <p>
+ * 带宽只在两处减半：这里整体遍历的循环（move、moveTo、resetForces、changeVelocities），
+ * 以及 gravity=direct 时的 DirectSum(true)。默认的 tree 以及 fmm、pm、p3m 的力循环主要读树节点、
+ * 多极展开系数和网格，这些都是 double，逐个读粒子时也先转成 double，所以 float 模式对它们没有带宽上的好处，
+ * 只是少占一半的粒子内存。
+ * <p>
+ * 和双精度的对比（JDK 17，-Dprecision=float）：
+ * <ul>
+ * <li>GravityBenchmark（randomGenerated3）中 direct float 的合力相对误差中位数 4e-6，p99 6e-5，最大 9e-4，
+ * 比 double 的 direct 快约 20%；各个近似求解器的误差不变（它们的截断误差远大于舍入误差）。</li>
+ * <li>body3-ter 的 10 个检查点和 double 的输出最多差 1e-6，而 double 和 body3-ans 的差约 4e-4。</li>
+ * <li>randomGenerated2_ 的检查点和 double 的输出差约 1e-5。</li>
+ * </ul>
+ */
+public class FloatParticleStore extends ParticleStore{
+    private static final int PARALLEL_THRESHOLD = 1 << 12;
+
+    private final float[] rx, ry;     // position
+    private final float[] vx, vy;     // velocity
+    private final float[] fx, fy;
+    private final float[] ax, ay;     // 上一次 changeVelocity 时的加速度
+    private final double[] t;         // 惰性时钟保持双精度
+    private final float[] radius;
+    private final float[] mass;
+    private final int[] count;        // number of collisions so far
+
+    public FloatParticleStore(int size){
+        super(size);
+        rx = new float[size];
+        ry = new float[size];
+        vx = new float[size];
+        vy = new float[size];
+        fx = new float[size];
+        fy = new float[size];
+        ax = new float[size];
+        ay = new float[size];
+        t = new double[size];
+        radius = new float[size];
+        mass = new float[size];
+        count = new int[size];
+    }
+
+    @Override
+    public double getRx(int i){
+        return rx[i];
+    }
+
+    @Override
+    public double getRy(int i){
+        return ry[i];
+    }
+
+    @Override
+    public double getVx(int i){
+        return vx[i];
+    }
+
+    @Override
+    public double getVy(int i){
+        return vy[i];
+    }
+
+    @Override
+    public double getFx(int i){
+        return fx[i];
+    }
+
+    @Override
+    public double getFy(int i){
+        return fy[i];
+    }
+
+    @Override
+    public double getAx(int i){
+        return ax[i];
+    }
+
+    @Override
+    public double getAy(int i){
+        return ay[i];
+    }
+
+    @Override
+    public double getT(int i){
+        return t[i];
+    }
+
+    @Override
+    public double getRadius(int i){
+        return radius[i];
+    }
+
+    @Override
+    public double getMass(int i){
+        return mass[i];
+    }
+
+    @Override
+    public int getCount(int i){
+        return count[i];
+    }
+
+    @Override
+    public void setPosition(int i, double rx, double ry){
+        this.rx[i] = (float) rx;
+        this.ry[i] = (float) ry;
+    }
+
+    @Override
+    public void setVelocity(int i, double vx, double vy){
+        this.vx[i] = (float) vx;
+        this.vy[i] = (float) vy;
+    }
+
+    @Override
+    public void setForce(int i, double fx, double fy){
+        this.fx[i] = (float) fx;
+        this.fy[i] = (float) fy;
+    }
+
+    @Override
+    public void setAcceleration(int i, double ax, double ay){
+        this.ax[i] = (float) ax;
+        this.ay[i] = (float) ay;
+    }
+
+    @Override
+    public void setT(int i, double t){
+        this.t[i] = t;
+    }
+
+    @Override
+    public void setRadius(int i, double radius){
+        this.radius[i] = (float) radius;
+    }
+
+    @Override
+    public void setMass(int i, double mass){
+        this.mass[i] = (float) mass;
+    }
+
+    @Override
+    public void setCount(int i, int count){
+        this.count[i] = count;
+    }
+
+    //下面几个整体遍历的循环直接读写 float[]，不经过虚调用
+
+    @Override
+    public void move(double dt){
+        range().forEach(i -> {
+            rx[i] = (float) (rx[i] + (double) vx[i] * dt);
+            ry[i] = (float) (ry[i] + (double) vy[i] * dt);
+        });
+    }
+
+    @Override
+    public void moveTo(double time){
+        range().forEach(i -> {
+            double dt = time - t[i];
+            rx[i] = (float) (rx[i] + (double) vx[i] * dt);
+            ry[i] = (float) (ry[i] + (double) vy[i] * dt);
+            t[i] = time;
+        });
+    }
+
+    @Override
+    public void resetForces(){
+        range().forEach(i -> {
+            fx[i] = 0;
+            fy[i] = 0;
+        });
+    }
+
+    @Override
+    public void changeVelocities(double tick){
+        range().forEach(i -> {
+            double x = (double) fx[i] / mass[i];
+            double y = (double) fy[i] / mass[i];
+            ax[i] = (float) x;
+            ay[i] = (float) y;
+            vx[i] = (float) (vx[i] + x * tick);
+            vy[i] = (float) (vy[i] + y * tick);
+        });
+    }
+
+    private IntStream range(){
+        IntStream range = IntStream.range(0, size);
+        return size >= PARALLEL_THRESHOLD ? range.parallel() : range;
+    }
+}
@@ -0,0 +1,132 @@
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * 比较各个引力求解器的精度和速度：以逐对调用 Particle.addForceTo 的 O(N^2) 求和为基准，统计每个粒子合力的相对误差。
+ * 读入和 CollisionSystem 相同格式的数据。
+ * <p>
+ * java GravityBenchmark < data/randomGenerated3.tsv
+ * java -DoffHeap=true GravityBenchmark < data/randomGenerated3.tsv
+ * java -Dprecision=float GravityBenchmark < data/randomGenerated3.tsv
+ * java --add-modules jdk.incubator.vector GravityBenchmark < data/randomGenerated3.tsv（编译了 src-vector 时，见 PairKernels）
+ * <p>
+ * 基准总是用 double 的坐标计算；-Dprecision=float 时粒子状态存成 float，误差里包括坐标和合力的舍入。
+ */
+public class GravityBenchmark{
+    private static final int WARMUP = 2;
+    private static final int ROUNDS = 5;
+    private static final double G = 6.67259e-11;
+
+    public static void main(String[] args){
+        BenchmarkInput input = BenchmarkInput.read();
+        double width = input.width;
+        Particle[] particles = input.particles;
+        int n = particles.length;
+        double[] fx = new double[n], fy = new double[n];
+        long t0 = System.nanoTime();
+        for(int i = 0; i < n; i++){
+            particles[i].resetForce();
+            for(int j = 0; j < n; j++){
+                if(i != j) particles[i].addForceTo(particles[j], G);
+            }
+            fx[i] = particles[i].getFx();
+            fy[i] = particles[i].getFy();
+        }
+        double directTime = (System.nanoTime() - t0) / 1e6;
+        ParticleStore.adopt(particles, Boolean.getBoolean("offHeap"), "float".equals(System.getProperty("precision")));
+        Quad q = new Quad(width);
+
+        double reach = reach(particles);
+
+        System.out.printf("N = %d, direct sum %.1f ms, collision reach %.3f, %s kernels%n", n, directTime, reach, PairKernels.kernel());
+
+        Map<String, GravityEngine> engines = new LinkedHashMap<>();
+        engines.put("direct", new DirectSum());
+        engines.put("direct float", new DirectSum(true));
+        engines.put("tree theta=0.7", tree(q, new OpeningCriterion(0.7, 0)));
+        engines.put("tree theta=0.5 quad", tree(q, new OpeningCriterion(0.5, 0, true)));
+        engines.put("tree theta=0.3 quad", tree(q, new OpeningCriterion(0.3, 0, true)));
+        for(OpeningCriterion opening : new OpeningCriterion[]{new OpeningCriterion(0.7, 0), new OpeningCriterion(0.5, 0, true)}){
+            String name = "object theta=" + opening.getTheta() + (opening.isQuadrupole() ? " quad" : "");
+            engines.put(name, objectTree(q, opening, 0));
+            for(int groupSize : new int[]{8, 32, 128}){
+                engines.put(name + " group=" + groupSize, objectTree(q, opening, groupSize));
+            }
+        }
+        engines.put("fmm p=2 theta=0.5", new FastMultipole(q, 2, 0.5));
+        engines.put("fmm p=4 theta=0.7", new FastMultipole(q, 4, 0.7));
+        engines.put("fmm p=4 theta=0.5", new FastMultipole(q, 4, 0.5));
+        engines.put("fmm p=6 theta=0.5", new FastMultipole(q, 6, 0.5));
+        engines.put("pm m=64", new ParticleMesh(q, 64));
+        engines.put("pm m=128", new ParticleMesh(q, 128));
+        engines.put("pm m=256", new ParticleMesh(q, 256));
+        //P3M 的短程部分和 CollisionSystem 的默认设置一样用 Verlet 近邻表，范围取 reach 和 P3M.range 中较大的
+        for(int m : new int[]{128, 256}){
+            double rs = 1.25 * width / m;
+            engines.put(String.format("p3m m=%d rs=%.2f (default)", m, rs), new P3M(q, m, rs, verlet(particles, width, reach, rs)));
+        }
+        for(double rs : new double[]{0.25, 0.5, 1}){
+            NeighborTable neighbors = verlet(particles, width, reach, rs);
+            engines.put("p3m m=128 rs=" + rs, new P3M(q, 128, rs, neighbors));
+            engines.put("p3m m=256 rs=" + rs, new P3M(q, 256, rs, neighbors));
+        }
+
+        System.out.printf("%-30s %10s %10s %10s %10s%n", "engine", "time ms", "median", "p99", "max");
+        double[] error = new double[n];
+        for(Map.Entry<String, GravityEngine> entry : engines.entrySet()){
+            double best = Double.POSITIVE_INFINITY;
+            for(int round = 0; round < WARMUP + ROUNDS; round++){
+                for(Particle p : particles) p.resetForce();
+                long start = System.nanoTime();
+                entry.getValue().accumulate(particles, G);
+                if(round >= WARMUP) best = Math.min(best, (System.nanoTime() - start) / 1e6);
+            }
+            for(int i = 0; i < n; i++){
+                double dx = particles[i].getFx() - fx[i];
+                double dy = particles[i].getFy() - fy[i];
+                error[i] = Math.sqrt((dx * dx + dy * dy) / (fx[i] * fx[i] + fy[i] * fy[i]));
+            }
+            Arrays.sort(error);
+            System.out.printf("%-30s %10.2f %10.2e %10.2e %10.2e%n", entry.getKey(), best, error[n / 2], error[n * 99 / 100], error[n - 1]);
+        }
+    }
+
+    //和 CollisionSystem.reach 相同：两倍最大半径加上一个时钟刻度内最多接近的距离
+    private static double reach(Particle[] particles){
+        double maxRadius = 0, maxSpeed = 0;
+        for(Particle p : particles){
+            maxRadius = Math.max(maxRadius, p.getRadius());
+            maxSpeed = Math.max(maxSpeed, p.v());
+        }
+        return 2 * maxRadius + 2 * maxSpeed / CollisionSystem.getHZ();
+    }
+
+    //默认 skin 的 Verlet 近邻表（建表不计入 P3M 的时间）
+    private static NeighborTable verlet(Particle[] particles, double width, double reach, double splitRadius){
+        NeighborTable neighbors = new NeighborTable();
+        new VerletList(width, 0).update(particles, Math.max(reach, P3M.range(splitRadius)), neighbors);
+        System.out.printf("verlet rs=%.2f: %.1f neighbors per particle%n", splitRadius, neighbors.total() / (double) particles.length);
+        return neighbors;
+    }
+
+    //对象树（包括建树），groupSize > 0 时分组遍历
+    private static GravityEngine objectTree(Quad q, OpeningCriterion opening, int groupSize){
+        return (particles, g) -> {
+            BarnesHutTree tree = BarnesHutTree.build(particles, q, 0, 1);
+            if(opening.isQuadrupole()) tree.computeQuadrupoles();
+            if(groupSize > 0) tree.updateForceByGroup(g, opening, groupSize);
+            else for(Particle p : particles) tree.updateForce(p, g, opening);
+        };
+    }
+
+    //平铺 Barnes-Hut 树（包括建树）包装成 GravityEngine
+    private static GravityEngine tree(Quad q, OpeningCriterion opening){
+        FlatBarnesHutTree tree = new FlatBarnesHutTree();
+        return (particles, g) -> {
+            tree.build(particles, q);
+            if(opening.isQuadrupole()) tree.computeQuadrupoles();
+            for(Particle p : particles) tree.updateForce(p, g, opening);
+        };
+    }
+}
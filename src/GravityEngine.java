@@ -0,0 +1,10 @@
+/**
+ * 计算所有粒子之间引力的求解器，CollisionSystem.calForces 里可以替换 Barnes-Hut 树。
+ * <p>
+ * accumulate 调用前每个粒子的力已经 resetForce，求解器只负责把引力累加进去，
+ * 速度的更新仍然由 CollisionSystem 统一做。
+ */
+public interface GravityEngine{
+
+    void accumulate(Particle[] particles, double G);
+}
@@ -0,0 +1,133 @@
+/**
+ * 堆上的 ParticleStore：每个量一个连续的数组（structure of arrays）。
+ */
+public class HeapParticleStore extends ParticleStore{
+    private final double[] rx, ry;     // position
+    private final double[] vx, vy;     // velocity
+    private final double[] fx, fy;
+    private final double[] ax, ay;     // 上一次 changeVelocity 时的加速度
+    private final double[] t;          // 惰性时钟：位置对应的时间
+    private final double[] radius;
+    private final double[] mass;
+    private final int[] count;         // number of collisions so far
+
+    public HeapParticleStore(int size){
+        super(size);
+        rx = new double[size];
+        ry = new double[size];
+        vx = new double[size];
+        vy = new double[size];
+        fx = new double[size];
+        fy = new double[size];
+        ax = new double[size];
+        ay = new double[size];
+        t = new double[size];
+        radius = new double[size];
+        mass = new double[size];
+        count = new int[size];
+    }
+
+    @Override
+    public double getRx(int i){
+        return rx[i];
+    }
+
+    @Override
+    public double getRy(int i){
+        return ry[i];
+    }
+
+    @Override
+    public double getVx(int i){
+        return vx[i];
+    }
+
+    @Override
+    public double getVy(int i){
+        return vy[i];
+    }
+
+    @Override
+    public double getFx(int i){
+        return fx[i];
+    }
+
+    @Override
+    public double getFy(int i){
+        return fy[i];
+    }
+
+    @Override
+    public double getAx(int i){
+        return ax[i];
+    }
+
+    @Override
+    public double getAy(int i){
+        return ay[i];
+    }
+
+    @Override
+    public double getT(int i){
+        return t[i];
+    }
+
+    @Override
+    public double getRadius(int i){
+        return radius[i];
+    }
+
+    @Override
+    public double getMass(int i){
+        return mass[i];
+    }
+
+    @Override
+    public int getCount(int i){
+        return count[i];
+    }
+
+    @Override
+    public void setPosition(int i, double rx, double ry){
+        this.rx[i] = rx;
+        this.ry[i] = ry;
+    }
+
+    @Override
+    public void setVelocity(int i, double vx, double vy){
+        this.vx[i] = vx;
+        this.vy[i] = vy;
+    }
+
+    @Override
+    public void setForce(int i, double fx, double fy){
+        this.fx[i] = fx;
+        this.fy[i] = fy;
+    }
+
+    @Override
+    public void setAcceleration(int i, double ax, double ay){
+        this.ax[i] = ax;
+        this.ay[i] = ay;
+    }
+
+    @Override
+    public void setT(int i, double t){
+        this.t[i] = t;
+    }
+
+    @Override
+    public void setRadius(int i, double radius){
+        this.radius[i] = radius;
+    }
+
+    @Override
+    public void setMass(int i, double mass){
+        this.mass[i] = mass;
+    }
+
+    @Override
+    public void setCount(int i, int count){
+        this.count[i] = count;
+    }
+}
@@ -0,0 +1,127 @@
+import java.util.Arrays;
+import java.util.NoSuchElementException;
+
+/**
+ * 以粒子编号为索引的最小堆，每个粒子只有一个"下一个事件"的槽位。
+ * 新的预测只有比槽位里的事件更早时才会替换它（decrease-key），
+ * 因此堆的大小始终不超过 N + 1（最后一个槽位留给重绘事件）。
+ * 粒子之间的事件会同时放进两个粒子的槽位，出队时两个槽位一起删除。
+ */
+public class IndexedEventHeap implements EventQueue{
+    private final int n;          // 粒子数，槽位 n 是重绘事件
+    private final Event[] slots;  // 每个槽位当前最早的事件
+    private final int[] heap;     // 堆中保存槽位编号
+    private final int[] pos;      // 槽位在堆中的位置，-1 表示不在堆中
+    private int size;
+
+    public IndexedEventHeap(int n){
+        this.n = n;
+        this.slots = new Event[n + 1];
+        this.heap = new int[n + 1];
+        this.pos = new int[n + 1];
+        Arrays.fill(pos, -1);
+    }
+
+    public synchronized void add(Event e){
+        if(e.a == null && e.b == null){
+            offer(n, e);
+            return;
+        }
+        if(e.a != null) offer(e.a.getId(), e);
+        if(e.b != null) offer(e.b.getId(), e);
+    }
+
+    private void offer(int k, Event e){
+        if(pos[k] < 0){
+            slots[k] = e;
+            pos[k] = size;
+            heap[size] = k;
+            size++;
+            swim(pos[k]);
+        }
+        else if(e.time < slots[k].time){
+            slots[k] = e;
+            swim(pos[k]);
+        }
+    }
+
+    public synchronized Event remove(){
+        if(size == 0) throw new NoSuchElementException("Priority queue underflow");
+        int k = heap[0];
+        Event e = slots[k];
+        delete(k);
+        //粒子之间的事件同时在两个槽位里，另一份也删掉：留着的话它会挡住那个粒子之后更晚的预测
+        if(e.a != null) discard(e.a.getId(), e);
+        if(e.b != null) discard(e.b.getId(), e);
+        return e;
+    }
+
+    private void discard(int k, Event e){
+        if(pos[k] >= 0 && slots[k] == e) delete(k);
+    }
+
+    public synchronized void invalidate(Particle p){
+        if(p != null && pos[p.getId()] >= 0) delete(p.getId());
+    }
+
+    private void delete(int k){
+        int i = pos[k];
+        size--;
+        exch(i, size);
+        pos[k] = -1;
+        slots[k] = null;
+        if(i < size){
+            swim(i);
+            sink(i);
+        }
+    }
+
+    public synchronized boolean isEmpty(){
+        return size == 0;
+    }
+
+    public synchronized int size(){
+        return size;
+    }
+
+    public synchronized void clear(){
+        for(int i = 0; i < size; i++){
+            pos[heap[i]] = -1;
+            slots[heap[i]] = null;
+        }
+        size = 0;
+    }
+
+    public boolean keepsOnlyNextEvent(){
+        return true;
+    }
+
+    private boolean greater(int i, int j){
+        return slots[heap[i]].time > slots[heap[j]].time;
+    }
+
+    private void exch(int i, int j){
+        int swap = heap[i];
+        heap[i] = heap[j];
+        heap[j] = swap;
+        pos[heap[i]] = i;
+        pos[heap[j]] = j;
+    }
+
+    private void swim(int i){
+        while(i > 0 && greater((i - 1) / 2, i)){
+            exch(i, (i - 1) / 2);
+            i = (i - 1) / 2;
+        }
+    }
+
+    private void sink(int i){
+        while(2 * i + 1 < size){
+            int j = 2 * i + 1;
+            if(j + 1 < size && greater(j, j + 1)) j++;
+            if(!greater(i, j)) break;
+            exch(i, j);
+            i = j;
+        }
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * 比较 Barnes-Hut 树叶子容量 K 对一个时钟刻度的开销：建树、引力计算、邻居搜索和碰撞预测，
+ * 最后一列是预测出的一个刻度内的碰撞数（同一对粒子从两边各算一次）。
+ * 读入和 CollisionSystem 相同格式的数据。
+ * <p>
+ * java LeafCapacityBenchmark < data/randomGenerated2_.tsv
+ */
+public class LeafCapacityBenchmark{
+    private static final int[] CAPACITIES = {1, 2, 4, 8, 16, 32};
+    private static final int WARMUP = 3;
+    private static final int ROUNDS = 5;
+    private static final int ACCURACY = 8;
+    private static final double G = 6.67259e-11;
+
+    public static void main(String[] args){
+        BenchmarkInput input = BenchmarkInput.read();
+        double width = input.width;
+        Particle[] particles = input.particles;
+        int n = particles.length;
+        ParticleStore.adopt(particles);
+        Quad q = new Quad(width);
+        double window = 1.0 / CollisionSystem.getHZ();
+        NeighborTable table = new NeighborTable();
+
+        System.out.printf("N = %d%n", n);
+        System.out.printf("%4s %10s %10s %10s %10s %10s %12s %8s%n", "K", "build ms", "force ms", "nbr ms", "pred ms", "total ms", "nbrs/part",
+                "hits");
+        for(int k : CAPACITIES){
+            double[] best = {Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY, Double.POSITIVE_INFINITY};
+            long neighbors = 0;
+            int hits = 0;
+            for(int round = 0; round < WARMUP + ROUNDS; round++){
+                long t0 = System.nanoTime();
+                BarnesHutTree tree = BarnesHutTree.build(particles, q, 0, k);
+                long t1 = System.nanoTime();
+                for(Particle p : particles){
+                    p.resetForce();
+                    tree.updateForce(p, G);
+                }
+                long t2 = System.nanoTime();
+                table.build(particles, (p, row) -> tree.findNeighbor(tree.find(p), ACCURACY, row));
+                neighbors = table.total();
+                long t3 = System.nanoTime();
+                hits = 0;
+                for(Particle p : particles){
+                    for(int j = table.start(p.getId()); j < table.end(p.getId()); j++){
+                        double dt = particles[table.get(j)].timeToHit(p);
+                        if(dt >= 0 && dt <= window) hits++;
+                    }
+                }
+                long t4 = System.nanoTime();
+                if(round < WARMUP) continue;
+                best[0] = Math.min(best[0], (t1 - t0) / 1e6);
+                best[1] = Math.min(best[1], (t2 - t1) / 1e6);
+                best[2] = Math.min(best[2], (t3 - t2) / 1e6);
+                best[3] = Math.min(best[3], (t4 - t3) / 1e6);
+            }
+            System.out.printf("%4d %10.2f %10.2f %10.2f %10.2f %10.2f %12.1f %8d%n", k, best[0], best[1], best[2], best[3],
+                    best[0] + best[1] + best[2] + best[3], neighbors / (double) n, hits);
+        }
+    }
+}
@@ -0,0 +1,172 @@
+import java.util.Arrays;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.IntStream;
+
+/**
+ * 所有粒子的近邻表，按压缩稀疏行（CSR）存放：第 i 个粒子的近邻是 index[start(i)] 到 index[end(i) - 1]，
+ * 值是粒子在数组中的下标（即 Particle.getId）。
+ * <p>
+ * build 对所有粒子重新生成整张表：粒子分成连续的几段并行查找，每段先写进自己的 Row 缓冲区，
+ * 再按各段的长度拼接到 index 里。rebuild 只重写一个粒子（碰撞之后），新的一行追加在 index 的末尾，
+ * 原来那一行的位置空着，到下一次 build 时收回。所有数组和缓冲区只在容量不够时扩大，之后重复使用，
+ * 所以生成和遍历近邻都不分配对象。
+ */
+public class NeighborTable{
+    private static final int PARALLEL_THRESHOLD = 1 << 11;
+    private static final int CHUNKS = 4 * (ForkJoinPool.getCommonPoolParallelism() + 1);
+
+    //找出粒子 p 的近邻，逐个加到 row 里
+    public interface Finder{
+        void find(Particle p, Row row);
+    }
+
+    private int rows;
+    private int[] start = new int[0], end = new int[0];
+    private int[] index = new int[64];
+    private int size;                // index 已用的长度
+    private Row[] chunks = new Row[0];
+    private final Row scratch = new Row();
+
+    //对所有粒子调用 finder 重新生成整张表
+    public void build(Particle[] particles, Finder finder){
+        int n = particles.length;
+        ensureRows(n);
+        int count = n < PARALLEL_THRESHOLD ? 1 : CHUNKS;
+        if(chunks.length < count){
+            chunks = Arrays.copyOf(chunks, count);
+            for(int c = 0; c < count; c++){
+                if(chunks[c] == null) chunks[c] = new Row();
+            }
+        }
+        //先在各段的缓冲区里记下段内的偏移
+        IntStream range = IntStream.range(0, count);
+        (count > 1 ? range.parallel() : range).forEach(c -> {
+            Row row = chunks[c];
+            row.clear();
+            for(int i = (int) ((long) n * c / count); i < (int) ((long) n * (c + 1) / count); i++){
+                start[i] = row.size;
+                finder.find(particles[i], row);
+                end[i] = row.size;
+            }
+        });
+        int total = 0;
+        for(int c = 0; c < count; c++){
+            total += chunks[c].size;
+        }
+        ensureIndex(total);
+        int base = 0;
+        for(int c = 0; c < count; c++){
+            Row row = chunks[c];
+            System.arraycopy(row.ids, 0, index, base, row.size);
+            for(int i = (int) ((long) n * c / count); i < (int) ((long) n * (c + 1) / count); i++){
+                start[i] += base;
+                end[i] += base;
+            }
+            base += row.size;
+        }
+        size = total;
+    }
+
+    //由无序的粒子对 (first[k], second[k]) 生成整张表，每对同时加到两边
+    public void build(int n, int[] first, int[] second, int pairs){
+        ensureRows(n);
+        Arrays.fill(end, 0, n, 0);
+        for(int k = 0; k < pairs; k++){
+            end[first[k]]++;
+            end[second[k]]++;
+        }
+        //end 先当作行的长度，再变成写入位置
+        int total = 0;
+        for(int i = 0; i < n; i++){
+            start[i] = total;
+            total += end[i];
+            end[i] = start[i];
+        }
+        ensureIndex(total);
+        for(int k = 0; k < pairs; k++){
+            index[end[first[k]]++] = second[k];
+            index[end[second[k]]++] = first[k];
+        }
+        size = total;
+    }
+
+    //只重写粒子 p 的一行
+    public void rebuild(Particle p, Finder finder){
+        int i = p.getId();
+        if(i >= rows) return;
+        scratch.clear();
+        finder.find(p, scratch);
+        ensureIndex(size + scratch.size);
+        System.arraycopy(scratch.ids, 0, index, size, scratch.size);
+        start[i] = size;
+        size += scratch.size;
+        end[i] = size;
+    }
+
+    //还没有生成过的行为空
+    public int start(int i){
+        return i < rows ? start[i] : 0;
+    }
+
+    public int end(int i){
+        return i < rows ? end[i] : 0;
+    }
+
+    //index 中第 k 个位置的近邻下标
+    public int get(int k){
+        return index[k];
+    }
+
+    //第 i 个粒子的近邻数
+    public int count(int i){
+        return end(i) - start(i);
+    }
+
+    //所有行的近邻数之和
+    public long total(){
+        long total = 0;
+        for(int i = 0; i < rows; i++){
+            total += end[i] - start[i];
+        }
+        return total;
+    }
+
+    private void ensureRows(int n){
+        if(start.length < n){
+            start = new int[n];
+            end = new int[n];
+        }
+        rows = n;
+    }
+
+    private void ensureIndex(int capacity){
+        if(capacity > index.length){
+            index = Arrays.copyOf(index, Math.max(capacity, 2 * index.length));
+        }
+    }
+
+    /**
+     * 查找近邻时用的缓冲区，容量不够时扩大。
+     */
+    public static final class Row{
+        private int[] ids = new int[64];
+        private int size;
+
+        public void add(int id){
+            if(size == ids.length) ids = Arrays.copyOf(ids, 2 * size);
+            ids[size++] = id;
+        }
+
+        public void add(Particle p){
+            add(p.getId());
+        }
+
+        public void clear(){
+            size = 0;
+        }
+
+        public int size(){
+            return size;
+        }
+    }
+}
@@ -0,0 +1,148 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * 堆外的 ParticleStore：粒子放在 ByteBuffer.allocateDirect 分配的内存里，
+ * 每个粒子一个 STRIDE 字节的结构体，字段偏移固定：
+ * <pre>
+ *   0 rx   8 ry   16 vx   24 vy   32 fx   40 fy   48 ax   56 ay
+ *  64 t   72 radius   80 mass   88 count (int)   92 对齐
+ * </pre>
+ * 用本机字节序。数据不在 Java 堆上，堆的大小和 GC 暂停不再随粒子数增长。
+ * <p>
+ * 一个 ByteBuffer 最多 2^31 字节，所以内存按 SEGMENT_ROWS 个粒子（96 MB）分段，第 i 个粒子在第 i / SEGMENT_ROWS 段，
+ * 粒子数只受 int 下标的限制。src 按 Java 8 编译，用不了 JDK 17 上还在孵化的 MemorySegment（jdk.incubator.foreign），
+ * 所以用直接缓冲区。
+ */
+public class OffHeapParticleStore extends ParticleStore{
+    public static final int STRIDE = 96;
+    private static final int RX = 0, RY = 8, VX = 16, VY = 24, FX = 32, FY = 40, AX = 48, AY = 56;
+    private static final int T = 64, RADIUS = 72, MASS = 80, COUNT = 88;
+    private static final int SEGMENT_SHIFT = 20;
+    public static final int SEGMENT_ROWS = 1 << SEGMENT_SHIFT;
+    private static final int SEGMENT_MASK = SEGMENT_ROWS - 1;
+
+    private final ByteBuffer[] segments;
+
+    public OffHeapParticleStore(int size){
+        super(size);
+        this.segments = new ByteBuffer[(int) (((long) size + SEGMENT_ROWS - 1) >>> SEGMENT_SHIFT)];
+        for(int k = 0; k < segments.length; k++){
+            int rows = Math.min(SEGMENT_ROWS, size - k * SEGMENT_ROWS);
+            segments[k] = ByteBuffer.allocateDirect(rows * STRIDE).order(ByteOrder.nativeOrder());
+        }
+    }
+
+    //第 i 个粒子所在的段，和它的字段在段内的偏移
+    private ByteBuffer segment(int i){
+        return segments[i >>> SEGMENT_SHIFT];
+    }
+
+    private static int offset(int i, int field){
+        return (i & SEGMENT_MASK) * STRIDE + field;
+    }
+
+    @Override
+    public double getRx(int i){
+        return segment(i).getDouble(offset(i, RX));
+    }
+
+    @Override
+    public double getRy(int i){
+        return segment(i).getDouble(offset(i, RY));
+    }
+
+    @Override
+    public double getVx(int i){
+        return segment(i).getDouble(offset(i, VX));
+    }
+
+    @Override
+    public double getVy(int i){
+        return segment(i).getDouble(offset(i, VY));
+    }
+
+    @Override
+    public double getFx(int i){
+        return segment(i).getDouble(offset(i, FX));
+    }
+
+    @Override
+    public double getFy(int i){
+        return segment(i).getDouble(offset(i, FY));
+    }
+
+    @Override
+    public double getAx(int i){
+        return segment(i).getDouble(offset(i, AX));
+    }
+
+    @Override
+    public double getAy(int i){
+        return segment(i).getDouble(offset(i, AY));
+    }
+
+    @Override
+    public double getT(int i){
+        return segment(i).getDouble(offset(i, T));
+    }
+
+    @Override
+    public double getRadius(int i){
+        return segment(i).getDouble(offset(i, RADIUS));
+    }
+
+    @Override
+    public double getMass(int i){
+        return segment(i).getDouble(offset(i, MASS));
+    }
+
+    @Override
+    public int getCount(int i){
+        return segment(i).getInt(offset(i, COUNT));
+    }
+
+    @Override
+    public void setPosition(int i, double rx, double ry){
+        segment(i).putDouble(offset(i, RX), rx);
+        segment(i).putDouble(offset(i, RY), ry);
+    }
+
+    @Override
+    public void setVelocity(int i, double vx, double vy){
+        segment(i).putDouble(offset(i, VX), vx);
+        segment(i).putDouble(offset(i, VY), vy);
+    }
+
+    @Override
+    public void setForce(int i, double fx, double fy){
+        segment(i).putDouble(offset(i, FX), fx);
+        segment(i).putDouble(offset(i, FY), fy);
+    }
+
+    @Override
+    public void setAcceleration(int i, double ax, double ay){
+        segment(i).putDouble(offset(i, AX), ax);
+        segment(i).putDouble(offset(i, AY), ay);
+    }
+
+    @Override
+    public void setT(int i, double t){
+        segment(i).putDouble(offset(i, T), t);
+    }
+
+    @Override
+    public void setRadius(int i, double radius){
+        segment(i).putDouble(offset(i, RADIUS), radius);
+    }
+
+    @Override
+    public void setMass(int i, double mass){
+        segment(i).putDouble(offset(i, MASS), mass);
+    }
+
+    @Override
+    public void setCount(int i, int count){
+        segment(i).putInt(offset(i, COUNT), count);
+    }
+}
@@ -0,0 +1,62 @@
+/**
+ * Barnes-Hut 的节点接受条件。
+ * <p>
+ * 几何条件：节点边长 l 与到质心距离 d 之比小于 theta 时，把整个节点当成一个质点。
+ * 原来写死的是 theta = 2。
+ * <p>
+ * 相对误差条件（errorTolerance > 0 时启用）：单极近似的误差约为 G M l^2 / d^4，
+ * 要求它不超过粒子上一步加速度的 errorTolerance 倍，即
+ * G M l^2 <= errorTolerance * |a_old| * d^4，粒子落在节点内部时总是打开节点。
+ * 第一步还没有上一步的加速度，这时退回几何条件。
+ * <p>
+ * quadrupole 为 true 时，被接受的节点除了质心以外还使用四极矩，
+ * 误差项变成 G M l^3 / d^5，同样的误差下可以用更大的张角。
+ */
+public class OpeningCriterion{
+    private final double theta;
+    private final double errorTolerance;
+    private final boolean quadrupole;
+
+    public static final OpeningCriterion DEFAULT = new OpeningCriterion(2, 0);
+
+    public OpeningCriterion(double theta, double errorTolerance){
+        this(theta, errorTolerance, false);
+    }
+
+    public OpeningCriterion(double theta, double errorTolerance, boolean quadrupole){
+        this.theta = theta;
+        this.errorTolerance = errorTolerance;
+        this.quadrupole = quadrupole;
+    }
+
+    public boolean isQuadrupole(){
+        return quadrupole;
+    }
+
+    public double getTheta(){
+        return theta;
+    }
+
+    public double getErrorTolerance(){
+        return errorTolerance;
+    }
+
+    /**
+     * @param length 节点边长
+     * @param mass   节点总质量
+     * @param d      粒子到节点质心的距离
+     * @param inside 粒子是否在节点的范围内
+     * @param aOld   粒子上一步的加速度大小
+     * @param g      引力常数
+     * @return 是否可以不打开节点，直接用质心近似
+     */
+    public boolean accept(double length, double mass, double d, boolean inside, double aOld, double g){
+        if(errorTolerance > 0 && aOld > 0){
+            if(inside) return false;
+            double d2 = d * d;
+            if(quadrupole) return g * mass * length * length * length <= errorTolerance * aOld * d2 * d2 * d;
+            return g * mass * length * length <= errorTolerance * aOld * d2 * d2;
+        }
+        return length / d < theta;
+    }
+}
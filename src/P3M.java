@@ -0,0 +1,58 @@
+import java.util.Arrays;
+
+/**
+ * P3M（particle-particle particle-mesh）：长程引力由 ParticleMesh 在网格上求，
+ * 短程部分对每个粒子在 neighbors（碰撞预测用的近邻表）中的近邻直接求和。
+ * <p>
+ * 网格只负责 erf 拆分后光滑的长程部分，近邻之间补上 shortRange 比例的精确引力，
+ * 所以近处接近直接求和的精度，远处只有网格的开销。两个粒子重叠时直接求和不计引力，
+ * 这里就把网格给它们的长程部分减掉。
+ * 没有出现在近邻列表里的粒子对只有长程部分，所以近邻列表至少要覆盖 range(splitRadius)：
+ * 距离 COVERAGE 倍拆分半径处短程部分还占引力的 shortRange(4rs, rs) ≈ 4.6%，5 倍处约 0.6%。
+ * CollisionSystem 在 gravity=p3m 时把 grid、verlet、sap 的近邻范围放大到这个值；
+ * broadPhase=tree 时近邻仍由 accuracy 决定，不保证覆盖。调用前 neighbors 必须是最新的。
+ */
+public class P3M implements GravityEngine{
+    public static final double COVERAGE = 4;
+
+    private final ParticleMesh mesh;
+    private final NeighborTable neighbors;
+
+    public P3M(Quad quad, int m, double splitRadius, NeighborTable neighbors){
+        this.mesh = new ParticleMesh(quad, m, splitRadius);
+        this.neighbors = neighbors;
+    }
+
+    //近邻列表需要覆盖的距离
+    public static double range(double splitRadius){
+        return COVERAGE * splitRadius;
+    }
+
+    @Override
+    public void accumulate(Particle[] particles, double G){
+        mesh.accumulate(particles, G);
+        double rs = mesh.getSplitRadius();
+        Arrays.stream(particles).parallel().forEach(p -> {
+            double fx = 0, fy = 0;
+            for(int k = neighbors.start(p.getId()); k < neighbors.end(p.getId()); k++){
+                Particle x = particles[neighbors.get(k)];
+                if(x == p) continue;
+                double dx = x.getRx() - p.getRx();
+                double dy = x.getRy() - p.getRy();
+                double r = Math.sqrt(dx * dx + dy * dy);
+                if(r == 0) continue;
+                double s = ParticleMesh.shortRange(r, rs);
+                double f = G * p.getMass() * x.getMass() / (r * r * r);
+                if(r > p.getRadius() + x.getRadius()){
+                    fx += s * f * dx;
+                    fy += s * f * dy;
+                }
+                else{
+                    fx -= (1 - s) * f * dx;
+                    fy -= (1 - s) * f * dy;
+                }
+            }
+            p.addForce(fx, fy);
+        });
+    }
+}
@@ -1,7 +1,4 @@
 import java.awt.Color;
-import java.util.Collections;
-import java.util.List;
-import java.util.concurrent.PriorityBlockingQueue;
 
 /**
  * The {@code Particle} class represents a particle moving in the unit box,
@@ -20,44 +17,34 @@ import java.util.concurrent.PriorityBlockingQueue;
 public class Particle{
     private static final double INFINITY = Double.POSITIVE_INFINITY;
 
-    private double rx, ry;        // position
-    private double vx, vy;        // velocity
-    private double fx, fy;
-    private double ax, ay;
-    public double t = 0;
-    private int count;            // number of collisions so far
-    private final double radius;  // radius
-    private final double mass;    // mass
+    //位置、速度、力、时钟、碰撞次数、半径和质量都存放在 store 的第 id 行
+    private ParticleStore store;
+    private int id;               // index in the particle array (row of the store)
     private final Color color;    // color
-
-    public List<Particle> neighbors;
+    private BarnesHutTree leaf;   // external node of the tree holding this particle
 
     public String toString(double width){
-        return width * this.rx + " " + width * this.ry + " " + width * this.vx + " " + width * this.vy + "\n";
+        return width * getRx() + " " + width * getRy() + " " + width * getVx() + " " + width * getVy() + "\n";
     }
 
     public String toString(){
-        return this.rx + " " + this.ry + " " + this.vx + " " + this.vy + "\n";
+        return getRx() + " " + getRy() + " " + getVx() + " " + getVy() + "\n";
     }
 
     public Particle centroid(Particle a, Particle b){
-        double m = a.mass + b.mass;
-        return new Particle((a.rx * a.mass + b.rx * b.mass) / m, (a.ry * a.mass + b.ry * b.mass) / m, 0, 0, a.radius, m, a.color);
+        double m = a.getMass() + b.getMass();
+        return new Particle((a.getRx() * a.getMass() + b.getRx() * b.getMass()) / m, (a.getRy() * a.getMass() + b.getRy() * b.getMass()) / m,
+                0, 0, a.getRadius(), m, a.color);
     }
 
     public boolean in(Quad q){
-        return q.contains(this.rx, this.ry);
+        return q.contains(getRx(), getRy());
     }
 
     public double v(){
-        return Math.sqrt(this.vx * this.vx + this.vy * this.vy);
-    }
-
-    public void calNeighbors(BarnesHutTree tree, int accuracy){
-        this.neighbors = tree.getNeighbor(tree.find(this), accuracy);
+        return Math.sqrt(getVx() * getVx() + getVy() * getVy());
     }
 
-
     /**
      * Initializes a particle with the specified position, velocity, radius, mass, and color.
      *
@@ -70,36 +57,75 @@ public class Particle{
      * @param color  the color
      */
     public Particle(double rx, double ry, double vx, double vy, double radius, double mass, Color color){
-        this.vx = vx;
-        this.vy = vy;
-        this.rx = rx;
-        this.ry = ry;
-        this.radius = radius;
-        this.mass = mass;
+        this.store = new HeapParticleStore(1);
+        this.id = 0;
+        store.setPosition(0, rx, ry);
+        store.setVelocity(0, vx, vy);
+        store.setRadius(0, radius);
+        store.setMass(0, mass);
         this.color = color;
     }
 
+    //把状态复制到 store 的第 id 行，之后这个粒子是那一行的视图
+    void moveInto(ParticleStore store, int id){
+        this.store.copyRow(this.id, store, id);
+        this.store = store;
+        this.id = id;
+    }
+
+    public ParticleStore getStore(){
+        return this.store;
+    }
+
     public double distanceTo(Particle particle){
-        return Math.sqrt((this.rx - particle.rx) * (this.rx - particle.rx) + (this.ry - particle.ry) * (this.ry - particle.ry));
+        return Math.sqrt(squareDistanceTo(particle));
     }
 
     public double squareDistanceTo(Particle particle){
-        return (this.rx - particle.rx) * (this.rx - particle.rx) + (this.ry - particle.ry) * (this.ry - particle.ry);
+        double dx = getRx() - particle.getRx();
+        double dy = getRy() - particle.getRy();
+        return dx * dx + dy * dy;
     }
 
     public void addForceTo(Particle particle, double G){
-        double r = distanceTo(particle);
-        if(this.distanceTo(particle) > (this.radius + particle.radius)){
-            double netForce = G * this.mass * particle.mass / (r * r);
-            this.fx += netForce * (particle.rx - this.rx) / (r);
-            this.fy += netForce * (particle.ry - this.ry) / (r);
+        addForceTo(particle.getRx(), particle.getRy(), particle.getMass(), particle.getRadius(), G);
+    }
+
+    //来自位于 (x, y)、质量为 mass 的质点的引力
+    public void addForceTo(double x, double y, double mass, double radius, double G){
+        ParticleStore s = this.store;
+        int i = this.id;
+        double dx = x - s.getRx(i);
+        double dy = y - s.getRy(i);
+        double r = Math.sqrt(dx * dx + dy * dy);
+        if(r > (s.getRadius(i) + radius)){
+            double netForce = G * s.getMass(i) * mass / (r * r);
+            s.addForce(i, netForce * dx / (r), netForce * dy / (r));
         }
     }
 
 
+    //质心在 (x, y)、四极矩为 (qxx, qxy, qyy) 的节点对单极近似的修正
+    //Q_ij = sum m (3 s_i s_j - s^2 delta_ij)，a = G (Q r / r^5 - 5/2 (r Q r) r / r^7)，r 从质心指向粒子
+    public void addQuadrupoleForceTo(double x, double y, double qxx, double qxy, double qyy, double G){
+        double dx = getRx() - x;
+        double dy = getRy() - y;
+        double r2 = dx * dx + dy * dy;
+        double r5 = r2 * r2 * Math.sqrt(r2);
+        double qx = qxx * dx + qxy * dy;
+        double qy = qxy * dx + qyy * dy;
+        double s = dx * qx + dy * qy;
+        addForce(G * getMass() * (qx - 2.5 * s * dx / r2) / r5, G * getMass() * (qy - 2.5 * s * dy / r2) / r5);
+    }
+
+
+    //GravityEngine 算好的力直接累加进来
+    public void addForce(double fx, double fy){
+        store.addForce(id, fx, fy);
+    }
+
     public void resetForce(){
-        this.fx = 0;
-        this.fy = 0;
+        store.setForce(id, 0, 0);
     }
 
 
@@ -110,49 +136,63 @@ public class Particle{
      * @param dt the amount of time
      */
     public void move(double dt){
-        rx += vx * dt;
-        ry += vy * dt;
+        store.move(id, dt);
     }
 
     public void moveTo(double time){
-        rx += vx * (time - this.t);
-        ry += vy * (time - this.t);
-        this.t = time;
+        store.moveTo(id, time);
     }
 
     public void back(double dt){
-        rx -= vx * dt;
-        ry -= vy * dt;
+        store.move(id, -dt);
     }
 
     public void backTo(double time){
-        rx -= vx * (this.t - time);
-        ry -= vy * (this.t - time);
+        store.move(id, time - store.getT(id));
     }
 
     public double getRx(){
-        return this.rx;
+        return store.getRx(id);
     }
 
     public double getRy(){
-        return this.ry;
+        return store.getRy(id);
     }
 
     public double getVx(){
-        return this.vx;
+        return store.getVx(id);
     }
 
     public double getVy(){
-        return this.vy;
+        return store.getVy(id);
     }
 
+    public double getFx(){
+        return store.getFx(id);
+    }
 
-    public void changeVelocity(double tick){
-        this.ax = this.fx / mass;
-        this.ay = this.fy / mass;
+    public double getFy(){
+        return store.getFy(id);
+    }
+
+    public double getMass(){
+        return store.getMass(id);
+    }
 
-        this.vx += this.ax * tick;
-        this.vy += this.ay * tick;
+    //惰性时钟：当前位置对应的时间
+    public double getT(){
+        return store.getT(id);
+    }
+
+
+    //上一次 changeVelocity 时的加速度大小
+    public double getAcceleration(){
+        double ax = store.getAx(id), ay = store.getAy(id);
+        return Math.sqrt(ax * ax + ay * ay);
+    }
+
+    public void changeVelocity(double tick){
+        store.changeVelocity(id, tick);
     }
 
     /**
@@ -160,31 +200,19 @@ public class Particle{
      */
     public void draw(){
         StdDraw.setPenColor(color);
-        StdDraw.filledCircle(rx, ry, radius);
-    }
-
-    public void predictByList(Particle a, BarnesHutTree tree, int accuracy, PriorityBlockingQueue<Event> pq, double HZ, double t){
-        Collections.synchronizedList(tree.getNeighbor(tree.find(this), accuracy))
-                .stream()
-                .parallel()
-                .map(particle -> {
-                    particle.action(a, pq, HZ, t);
-                    return null;
-                });
+        StdDraw.filledCircle(getRx(), getRy(), getRadius());
     }
 
-    public synchronized void predictByNeighbor(Particle a, PriorityBlockingQueue<Event> pq, double HZ, double t){
-        Collections.synchronizedList(a.neighbors)
-                .stream()
-                .parallel()
-                .forEach(
-                        particle -> {
-                            particle.action(a, pq, HZ, t);
-                        }
-                );
+    //tree 中 this 的近邻写进 neighbors 中 this 的一行，每个近邻 x 调用 x.action(a, ...)
+    public void predictByList(Particle a, BarnesHutTree tree, int accuracy, NeighborTable neighbors, Particle[] particles,
+                              EventQueue pq, double HZ, double t){
+        neighbors.rebuild(this, (p, row) -> tree.findNeighbor(tree.find(p), accuracy, row));
+        for(int k = neighbors.start(id); k < neighbors.end(id); k++){
+            particles[neighbors.get(k)].action(a, pq, HZ, t);
+        }
     }
 
-    public void predictWalls(PriorityBlockingQueue<Event> pq, double width, double HZ, double t){
+    public void predictWalls(EventQueue pq, double width, double HZ, double t){
         double dtX = this.timeToHitVerticalWall(width);
         double dtY = this.timeToHitHorizontalWall(width);
         if(dtX >= 0 && dtX <= 1.0 / HZ) pq.add(new Event(t + dtX, this, null));
@@ -192,13 +220,20 @@ public class Particle{
     }
 
 
-    public void action(Particle b, PriorityBlockingQueue<Event> pq, double HZ, double t){
+    public void action(Particle b, EventQueue pq, double HZ, double t){
         double dt = this.timeToHit(b);
         if(dt >= 0 && dt <= 1.0 / HZ){
             pq.add(new Event(t + dt, this, b));
         }
     }
 
+    //近邻表中这个粒子的每个近邻 x 调用 x.action(this, ...)，直接遍历表中的一行
+    public void actionNeighbors(NeighborTable neighbors, Particle[] particles, EventQueue pq, double HZ, double t){
+        for(int k = neighbors.start(id); k < neighbors.end(id); k++){
+            particles[neighbors.get(k)].action(this, pq, HZ, t);
+        }
+    }
+
     /**
      * Returns the number of collisions involving this particle with
      * vertical walls, horizontal walls, or other particles.
@@ -210,7 +245,7 @@ public class Particle{
      * vertical walls, horizontal walls, or other particles
      */
     public int count(){
-        return count;
+        return store.getCount(id);
     }
 
     /**
@@ -225,16 +260,16 @@ public class Particle{
     public double timeToHit(Particle that){
 
         if(this == that) return INFINITY;
-        double dx = that.rx - this.rx;
-        double dy = that.ry - this.ry;
-        double dv_x = that.vx - this.vx;
-        double dv_y = that.vy - this.vy;
+        double dx = that.getRx() - this.getRx();
+        double dy = that.getRy() - this.getRy();
+        double dv_x = that.getVx() - this.getVx();
+        double dv_y = that.getVy() - this.getVy();
         double dvdr = dx * dv_x + dy * dv_y;
         if(dvdr > 0) return INFINITY;
         double dvdv = dv_x * dv_x + dv_y * dv_y;
         if(dvdv == 0) return INFINITY;
         double drdr = dx * dx + dy * dy;
-        double sigma = this.radius + that.radius;
+        double sigma = this.getRadius() + that.getRadius();
         double d = (dvdr * dvdr) - dvdv * (drdr - sigma * sigma);
         // if (drdr < sigma*sigma) StdOut.println("overlapping particles");
         if(d < 0) return INFINITY;
@@ -251,8 +286,9 @@ public class Particle{
      * with a vertical wall
      */
     public double timeToHitVerticalWall(double width){
-        if(vx > 0) return (width - rx - radius) / vx;
-        else if(vx < 0) return (radius - rx) / vx;
+        double vx = getVx();
+        if(vx > 0) return (width - getRx() - getRadius()) / vx;
+        else if(vx < 0) return (getRadius() - getRx()) / vx;
         else return INFINITY;
     }
 
@@ -266,8 +302,9 @@ public class Particle{
      * with a horizontal wall
      */
     public double timeToHitHorizontalWall(double width){
-        if(vy > 0) return (width - ry - radius) / vy;
-        else if(vy < 0) return (radius - ry) / vy;
+        double vy = getVy();
+        if(vy > 0) return (width - getRy() - getRadius()) / vy;
+        else if(vy < 0) return (getRadius() - getRy()) / vy;
         else return INFINITY;
     }
 
@@ -279,29 +316,27 @@ public class Particle{
      * @param that the other particle
      */
     public void bounceOff(Particle that){
-        double dx = that.rx - this.rx;
-        double dy = that.ry - this.ry;
-        double dvx = that.vx - this.vx;
-        double dvy = that.vy - this.vy;
+        double dx = that.getRx() - this.getRx();
+        double dy = that.getRy() - this.getRy();
+        double dvx = that.getVx() - this.getVx();
+        double dvy = that.getVy() - this.getVy();
         double dvdr = dx * dvx + dy * dvy;             // dv dot dr
-        double dist = this.radius + that.radius;   // distance between particle centers at collison
+        double dist = this.getRadius() + that.getRadius();   // distance between particle centers at collison
 
         // magnitude of normal force
-        double magnitude = 2 * this.mass * that.mass * dvdr / ((this.mass + that.mass) * dist);
+        double magnitude = 2 * this.getMass() * that.getMass() * dvdr / ((this.getMass() + that.getMass()) * dist);
 
         // normal force, and in x and y directions
         double fx = magnitude * dx / dist;
         double fy = magnitude * dy / dist;
 
         // update velocities according to normal force
-        this.vx += fx / this.mass;
-        this.vy += fy / this.mass;
-        that.vx -= fx / that.mass;
-        that.vy -= fy / that.mass;
+        this.store.addVelocity(this.id, fx / this.getMass(), fy / this.getMass());
+        that.store.addVelocity(that.id, -fx / that.getMass(), -fy / that.getMass());
 
         // update collision counts
-        this.count++;
-        that.count++;
+        this.store.incrementCount(this.id);
+        that.store.incrementCount(that.id);
     }
 
     /**
@@ -310,8 +345,8 @@ public class Particle{
      * Assumes that the particle is colliding with a vertical wall at this instant.
      */
     public void bounceOffVerticalWall(){
-        vx = -vx;
-        count++;
+        store.setVelocity(id, -store.getVx(id), store.getVy(id));
+        store.incrementCount(id);
     }
 
     /**
@@ -320,16 +355,28 @@ public class Particle{
      * Assumes that the particle is colliding with a horizontal wall at this instant.
      */
     public void bounceOffHorizontalWall(){
-        vy = -vy;
-        count++;
+        store.setVelocity(id, store.getVx(id), -store.getVy(id));
+        store.incrementCount(id);
     }
 
 
     public double kineticEnergy(){
-        return 0.5 * mass * (vx * vx + vy * vy);
+        return 0.5 * getMass() * (getVx() * getVx() + getVy() * getVy());
     }
 
     public double getRadius(){
-        return this.radius;
+        return store.getRadius(id);
+    }
+
+    public int getId(){
+        return this.id;
+    }
+
+    public BarnesHutTree getLeaf(){
+        return this.leaf;
+    }
+
+    public void setLeaf(BarnesHutTree leaf){
+        this.leaf = leaf;
     }
 }
@@ -0,0 +1,144 @@
+import java.util.Arrays;
+
+/**
+ * 粒子-网格（PM）方法求引力：把质量按 CIC（cloud-in-cell）权重分到 Quad 上 m * m 的网格，
+ * 用 FFT 和格点上的引力核做卷积得到每个格点的引力场，再用同样的 CIC 权重插值回粒子。
+ * <p>
+ * 这里的引力是 1/r^2，势函数 1/r 在平面上不满足二维泊松方程，所以不在频域里除以 k^2，
+ * 而是直接对离散的引力核 -r / |r|^3 做 FFT（Hockney-Eastwood 的做法）。
+ * 网格补零到 2m * 2m，卷积就不会周期性地绕回来，对应墙壁围住的非周期区域。
+ * 核的变换只在构造时算一次，每次 accumulate 是一次正变换和两次逆变换。
+ * 网格间距 h 以内的引力被抹平，适合接近均匀分布的大量粒子。
+ * <p>
+ * splitRadius = rs > 0 时只在网格上算长程部分（P3M 用）：1/r 拆成 erf(r / 2rs) / r 和 erfc(r / 2rs) / r，
+ * 核里只放前者对应的光滑的引力，短程部分 shortRange 由调用者对近邻直接求和。
+ */
+public class ParticleMesh implements GravityEngine{
+    private final int m;             // 每边的格点数
+    private final int n;             // 补零后每边的长度 2m
+    private final double h;          // 网格间距
+    private final double x0, y0;     // 网格左下角
+    private final double splitRadius;
+
+    private final double[] kxRe, kxIm, kyRe, kyIm;   // 引力核的频谱
+    private final double[] rhoRe, rhoIm;
+    private final double[] exRe, exIm, eyRe, eyIm;
+
+    public ParticleMesh(Quad quad, int m){
+        this(quad, m, 0);
+    }
+
+    public ParticleMesh(Quad quad, int m, double splitRadius){
+        if(m <= 0 || Integer.bitCount(m) != 1){
+            throw new IllegalArgumentException("mesh size must be a power of two: " + m);
+        }
+        this.m = m;
+        this.splitRadius = splitRadius;
+        this.n = 2 * m;
+        this.h = quad.getLength() / m;
+        this.x0 = quad.getXmid() - quad.getLength() / 2;
+        this.y0 = quad.getYmid() - quad.getLength() / 2;
+
+        int size = n * n;
+        kxRe = new double[size];
+        kxIm = new double[size];
+        kyRe = new double[size];
+        kyIm = new double[size];
+        rhoRe = new double[size];
+        rhoIm = new double[size];
+        exRe = new double[size];
+        exIm = new double[size];
+        eyRe = new double[size];
+        eyIm = new double[size];
+
+        //格点 (u, v) 对应的位移是 (u, v) 或 (u - n, v - n)，原点处不计自身的引力
+        for(int v = 0; v < n; v++){
+            for(int u = 0; u < n; u++){
+                double dx = (u < m ? u : u - n) * h;
+                double dy = (v < m ? v : v - n) * h;
+                double r2 = dx * dx + dy * dy;
+                if(r2 == 0) continue;
+                double r = Math.sqrt(r2);
+                double f = splitRadius > 0 ? 1 - shortRange(r, splitRadius) : 1;
+                kxRe[v * n + u] = -f * dx / (r2 * r);
+                kyRe[v * n + u] = -f * dy / (r2 * r);
+            }
+        }
+        FFT.transform2d(kxRe, kxIm, n, false);
+        FFT.transform2d(kyRe, kyIm, n, false);
+    }
+
+    public double getSplitRadius(){
+        return splitRadius;
+    }
+
+    //距离 r 处 1/r^2 引力中属于短程部分的比例：erfc(x) + 2x / sqrt(pi) exp(-x^2)，x = r / 2rs
+    public static double shortRange(double r, double rs){
+        double x = r / (2 * rs);
+        return erfc(x) + 2 * x / Math.sqrt(Math.PI) * Math.exp(-x * x);
+    }
+
+    //Abramowitz-Stegun 7.1.26，x >= 0 时误差小于 1.5e-7
+    private static double erfc(double x){
+        double t = 1 / (1 + 0.3275911 * x);
+        double poly = t * (0.254829592 + t * (-0.284496736 + t * (1.421413741 + t * (-1.453152027 + t * 1.061405429))));
+        return poly * Math.exp(-x * x);
+    }
+
+    @Override
+    public void accumulate(Particle[] particles, double G){
+        Arrays.fill(rhoRe, 0);
+        Arrays.fill(rhoIm, 0);
+        for(Particle p : particles){
+            deposit(p);
+        }
+
+        FFT.transform2d(rhoRe, rhoIm, n, false);
+        for(int i = 0; i < n * n; i++){
+            exRe[i] = rhoRe[i] * kxRe[i] - rhoIm[i] * kxIm[i];
+            exIm[i] = rhoRe[i] * kxIm[i] + rhoIm[i] * kxRe[i];
+            eyRe[i] = rhoRe[i] * kyRe[i] - rhoIm[i] * kyIm[i];
+            eyIm[i] = rhoRe[i] * kyIm[i] + rhoIm[i] * kyRe[i];
+        }
+        FFT.transform2d(exRe, exIm, n, true);
+        FFT.transform2d(eyRe, eyIm, n, true);
+
+        Arrays.stream(particles).parallel().forEach(p -> {
+            double gx = interpolate(exRe, p);
+            double gy = interpolate(eyRe, p);
+            p.addForce(G * p.getMass() * gx, G * p.getMass() * gy);
+        });
+    }
+
+    //CIC：格点在格子中心，粒子的质量按面积分给周围 4 个格点，越界的格点并到边上
+    private void deposit(Particle p){
+        double gx = (p.getRx() - x0) / h - 0.5;
+        double gy = (p.getRy() - y0) / h - 0.5;
+        int i = (int) Math.floor(gx);
+        int j = (int) Math.floor(gy);
+        double wx = gx - i, wy = gy - j;
+        double mass = p.getMass();
+        rhoRe[cell(i, j)] += mass * (1 - wx) * (1 - wy);
+        rhoRe[cell(i + 1, j)] += mass * wx * (1 - wy);
+        rhoRe[cell(i, j + 1)] += mass * (1 - wx) * wy;
+        rhoRe[cell(i + 1, j + 1)] += mass * wx * wy;
+    }
+
+    private double interpolate(double[] field, Particle p){
+        double gx = (p.getRx() - x0) / h - 0.5;
+        double gy = (p.getRy() - y0) / h - 0.5;
+        int i = (int) Math.floor(gx);
+        int j = (int) Math.floor(gy);
+        double wx = gx - i, wy = gy - j;
+        return field[cell(i, j)] * (1 - wx) * (1 - wy)
+                + field[cell(i + 1, j)] * wx * (1 - wy)
+                + field[cell(i, j + 1)] * (1 - wx) * wy
+                + field[cell(i + 1, j + 1)] * wx * wy;
+    }
+
+    private int cell(int i, int j){
+        i = Math.max(0, Math.min(m - 1, i));
+        j = Math.max(0, Math.min(m - 1, j));
+        return j * n + i;
+    }
+}
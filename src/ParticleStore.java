@@ -0,0 +1,155 @@
+import java.util.stream.IntStream;
+
+/**
+ * 所有粒子的数值状态（位置、速度、力、加速度、时钟、半径、质量、碰撞次数），粒子用下标 id 表示。
+ * Particle 只是 (store, id) 的视图，读写都落到这里；热点循环（移动、清力、更新速度）直接按行遍历，
+ * 不再经过对象引用。
+ * <p>
+ * 有两种实现，访问接口相同：HeapParticleStore 每个量一个 double[]（structure of arrays），
+ * OffHeapParticleStore 放在堆外的直接缓冲区里，每个粒子一个固定布局的结构体，不占 Java 堆，也不被 GC 扫描。
+ * FloatParticleStore 和 HeapParticleStore 一样按列存放，但除时钟外都是 float。
+ * <p>
+ * 单独 new 出来的 Particle 各自有一个只有一行的堆上 store，adopt 把一组粒子的状态复制进一个新的 store，
+ * 并把这些粒子改成指向它，之后粒子的 id 就是它在数组中的下标。
+ */
+public abstract class ParticleStore{
+    private static final int PARALLEL_THRESHOLD = 1 << 12;
+
+    protected final int size;
+
+    protected ParticleStore(int size){
+        this.size = size;
+    }
+
+    //把 particles 的状态复制到新的 store，particles[i] 变成第 i 行的视图
+    public static ParticleStore adopt(Particle[] particles){
+        return adopt(particles, false);
+    }
+
+    public static ParticleStore adopt(Particle[] particles, boolean offHeap){
+        return adopt(particles, offHeap, false);
+    }
+
+    //single 为 true 时用单精度的 FloatParticleStore，堆外的 store 只有双精度
+    public static ParticleStore adopt(Particle[] particles, boolean offHeap, boolean single){
+        if(offHeap && single){
+            throw new IllegalArgumentException("the off-heap store is double precision only");
+        }
+        ParticleStore store;
+        if(single) store = new FloatParticleStore(particles.length);
+        else if(offHeap) store = new OffHeapParticleStore(particles.length);
+        else store = new HeapParticleStore(particles.length);
+        for(int i = 0; i < particles.length; i++){
+            particles[i].moveInto(store, i);
+        }
+        return store;
+    }
+
+    public int size(){
+        return size;
+    }
+
+    public abstract double getRx(int i);
+
+    public abstract double getRy(int i);
+
+    public abstract double getVx(int i);
+
+    public abstract double getVy(int i);
+
+    public abstract double getFx(int i);
+
+    public abstract double getFy(int i);
+
+    public abstract double getAx(int i);
+
+    public abstract double getAy(int i);
+
+    public abstract double getT(int i);
+
+    public abstract double getRadius(int i);
+
+    public abstract double getMass(int i);
+
+    public abstract int getCount(int i);
+
+    public abstract void setPosition(int i, double rx, double ry);
+
+    public abstract void setVelocity(int i, double vx, double vy);
+
+    public abstract void setForce(int i, double fx, double fy);
+
+    public abstract void setAcceleration(int i, double ax, double ay);
+
+    public abstract void setT(int i, double t);
+
+    public abstract void setRadius(int i, double radius);
+
+    public abstract void setMass(int i, double mass);
+
+    public abstract void setCount(int i, int count);
+
+    //第 from 行的状态复制到 that 的第 to 行
+    void copyRow(int from, ParticleStore that, int to){
+        that.setPosition(to, getRx(from), getRy(from));
+        that.setVelocity(to, getVx(from), getVy(from));
+        that.setForce(to, getFx(from), getFy(from));
+        that.setAcceleration(to, getAx(from), getAy(from));
+        that.setT(to, getT(from));
+        that.setRadius(to, getRadius(from));
+        that.setMass(to, getMass(from));
+        that.setCount(to, getCount(from));
+    }
+
+    public void addForce(int i, double fx, double fy){
+        setForce(i, getFx(i) + fx, getFy(i) + fy);
+    }
+
+    public void addVelocity(int i, double dvx, double dvy){
+        setVelocity(i, getVx(i) + dvx, getVy(i) + dvy);
+    }
+
+    public void incrementCount(int i){
+        setCount(i, getCount(i) + 1);
+    }
+
+    public void move(int i, double dt){
+        setPosition(i, getRx(i) + getVx(i) * dt, getRy(i) + getVy(i) * dt);
+    }
+
+    public void moveTo(int i, double time){
+        move(i, time - getT(i));
+        setT(i, time);
+    }
+
+    public void changeVelocity(int i, double tick){
+        double ax = getFx(i) / getMass(i);
+        double ay = getFy(i) / getMass(i);
+        setAcceleration(i, ax, ay);
+        addVelocity(i, ax * tick, ay * tick);
+    }
+
+    //所有粒子匀速移动 dt
+    public void move(double dt){
+        range().forEach(i -> move(i, dt));
+    }
+
+    //所有粒子按各自的时钟移动到 time
+    public void moveTo(double time){
+        range().forEach(i -> moveTo(i, time));
+    }
+
+    public void resetForces(){
+        range().forEach(i -> setForce(i, 0, 0));
+    }
+
+    //和 Particle.changeVelocity 相同，对所有粒子
+    public void changeVelocities(double tick){
+        range().forEach(i -> changeVelocity(i, tick));
+    }
+
+    private IntStream range(){
+        IntStream range = IntStream.range(0, size);
+        return size >= PARALLEL_THRESHOLD ? range.parallel() : range;
+    }
+}
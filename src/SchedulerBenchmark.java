@@ -0,0 +1,83 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * 事件队列的基准测试（hold 模型）。
+ * 读入和 CollisionSystem 相同格式的数据，先用 Barnes-Hut 树和邻居列表算出一个重绘周期内的全部碰撞预测，
+ * 然后对每种队列反复执行"取出最早事件、为同一对粒子放入一个稍晚的新事件"。
+ * heap 每个粒子只保留最早的一个事件，所以队列比其他两种短；取出的粒子对事件同时从两个粒子的槽位删除，
+ * 新事件再放回去，队列长度在整个过程中保持不变（输出的 final 和开始时相同）。
+ * <p>
+ * 这里只比较队列本身。完整运行（JDK 17，单核，默认 verlet 粗筛）中队列不是瓶颈：
+ * randomGenerated2_ 到检查点 heap 0.97 s、calendar 0.98 s、blocking 1.07 s；
+ * randomGenerated3 到第 3 个检查点 heap 13.4-14.7 s、calendar 13.0-16.9 s、blocking 14.9-16.2 s。
+ * <p>
+ * java SchedulerBenchmark < data/randomGenerated2_.tsv
+ */
+public class SchedulerBenchmark{
+    private static final int ROUNDS = 5;
+
+    public static void main(String[] args){
+        BenchmarkInput input = BenchmarkInput.read();
+        double width = input.width;
+        Particle[] particles = input.particles;
+        int n = particles.length;
+        ParticleStore.adopt(particles);
+
+        double HZ = CollisionSystem.getHZ();
+        EventQueue recorder = new BlockingEventQueue();
+        BarnesHutTree tree = new BarnesHutTree(new Quad(width));
+        for(Particle p : particles){
+            tree.insert(p);
+        }
+        NeighborTable neighbors = new NeighborTable();
+        neighbors.build(particles, (p, row) -> tree.findNeighbor(tree.find(p), 8, row));
+        for(Particle p : particles){
+            p.predictWalls(recorder, width, HZ, 0);
+            p.actionNeighbors(neighbors, particles, recorder, HZ, 0);
+        }
+        List<Event> events = new ArrayList<Event>();
+        while(!recorder.isEmpty()){
+            events.add(recorder.remove());
+        }
+        int operations = Math.max(1000000, 20 * events.size());
+        System.out.printf("N = %d, predicted events per tick = %d, hold operations = %d%n", n, events.size(), operations);
+
+        String[] names = {"blocking", "heap", "calendar"};
+        for(String name : names){
+            double best = Double.POSITIVE_INFINITY;
+            int maxSize = 0, finalSize = 0;
+            for(int round = 0; round < ROUNDS; round++){
+                EventQueue pq = newQueue(name, n, HZ);
+                long start = System.nanoTime();
+                int size = hold(pq, events, operations, 1.0 / HZ, new Random(round));
+                long end = System.nanoTime();
+                best = Math.min(best, (end - start) / (double) operations);
+                maxSize = Math.max(maxSize, size);
+                finalSize = pq.size();
+            }
+            System.out.printf("%-10s %8.1f ns/op   queue size %d, final %d%n", name, best, maxSize, finalSize);
+        }
+    }
+
+    private static EventQueue newQueue(String name, int n, double HZ){
+        if(name.equals("heap")) return new IndexedEventHeap(n);
+        if(name.equals("calendar")) return new CalendarQueue(1.0 / HZ, n);
+        return new BlockingEventQueue();
+    }
+
+    // 返回过程中队列的最大长度
+    private static int hold(EventQueue pq, List<Event> events, int operations, double window, Random random){
+        for(Event e : events){
+            pq.add(e);
+        }
+        int maxSize = pq.size();
+        for(int i = 0; i < operations && !pq.isEmpty(); i++){
+            Event e = pq.remove();
+            pq.add(new Event(e.time + window * random.nextDouble(), e.a, e.b));
+            maxSize = Math.max(maxSize, pq.size());
+        }
+        return maxSize;
+    }
+}
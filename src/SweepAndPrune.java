@@ -0,0 +1,95 @@
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.stream.IntStream;
+
+/**
+ * 扫描剪枝（sweep and prune）粗筛：粒子按 x 坐标排好序，每个粒子在 x 方向占据 [x - reach / 2, x + reach / 2]，
+ * 区间在 x 和 y 方向都重叠（两个方向的距离都不超过 reach）的粒子互为近邻，reach 的含义和 CellList 相同。
+ * <p>
+ * 所有粒子的区间宽度相同，所以按区间端点排序等价于按 x 排序。排好的顺序跨时钟刻度保留，
+ * 每个刻度用插入排序修复：运动连贯时相邻刻度之间 x 的先后很少改变，插入排序接近线性。
+ * 第一次建立时没有可用的顺序，直接排序。
+ * <p>
+ * 扫描时对每个粒子只向后看 x 差不超过 reach 的粒子，每对只检查一次，找到的粒子对记在 first / second 里，
+ * 最后一次性生成 NeighborTable，每对同时加到两边。
+ * 碰撞之后单个粒子的近邻用二分查找在排好的序列里找，和 CellList 一样用建立时的位置。
+ */
+public class SweepAndPrune{
+    private double reach;
+    private int[] order = new int[0];        // 按 x 排好的粒子下标
+    private double[] xs = new double[0];     // order 对应的 x，和 order 一起移动
+    private double[] ys = new double[0];     // 粒子 order[k] 建立时的 y
+    private int[] first = new int[64], second = new int[64];   // 扫描找到的粒子对
+    private long swaps;                      // 插入排序累计移动的次数
+
+    //按当前位置修复顺序，并为所有粒子重新生成近邻表（不包括自己）
+    public void build(Particle[] particles, double reach, NeighborTable neighbors){
+        int n = particles.length;
+        this.reach = reach;
+        if(order.length != n){
+            order = IntStream.range(0, n).boxed()
+                    .sorted(Comparator.comparingDouble(i -> particles[i].getRx()))
+                    .mapToInt(Integer::intValue).toArray();
+            xs = new double[n];
+            ys = new double[n];
+        }
+        for(int k = 0; k < n; k++){
+            xs[k] = particles[order[k]].getRx();
+        }
+        insertionSort();
+        for(int k = 0; k < n; k++){
+            ys[k] = particles[order[k]].getRy();
+        }
+
+        int pairs = 0;
+        for(int k = 0; k < n; k++){
+            for(int l = k + 1; l < n && xs[l] - xs[k] <= reach; l++){
+                if(Math.abs(ys[l] - ys[k]) <= reach){
+                    if(pairs == first.length){
+                        first = Arrays.copyOf(first, 2 * pairs);
+                        second = Arrays.copyOf(second, 2 * pairs);
+                    }
+                    first[pairs] = order[k];
+                    second[pairs] = order[l];
+                    pairs++;
+                }
+            }
+        }
+        neighbors.build(n, first, second, pairs);
+    }
+
+    private void insertionSort(){
+        for(int k = 1; k < xs.length; k++){
+            double x = xs[k];
+            int id = order[k];
+            int l = k - 1;
+            while(l >= 0 && xs[l] > x){
+                xs[l + 1] = xs[l];
+                order[l + 1] = order[l];
+                l--;
+            }
+            swaps += k - 1 - l;
+            xs[l + 1] = x;
+            order[l + 1] = id;
+        }
+    }
+
+    //p 当前位置在 x、y 两个方向的距离都不超过 reach 的粒子（不包括自己），结果追加到 row 中
+    public void findNeighbor(Particle p, NeighborTable.Row row){
+        double px = p.getRx(), py = p.getRy();
+        //第一个 xs[k] >= px - reach 的位置
+        int lo = 0, hi = xs.length;
+        while(lo < hi){
+            int mid = (lo + hi) >>> 1;
+            if(xs[mid] < px - reach) lo = mid + 1;
+            else hi = mid;
+        }
+        for(int k = lo; k < xs.length && xs[k] <= px + reach; k++){
+            if(order[k] != p.getId() && Math.abs(ys[k] - py) <= reach) row.add(order[k]);
+        }
+    }
+
+    public long getSwaps(){
+        return swaps;
+    }
+}
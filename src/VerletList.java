@@ -0,0 +1,67 @@
+/**
+ * Verlet 近邻表：NeighborTable 里记下建表时每个粒子中心距离不超过 reach + skin 的粒子，之后跨时钟刻度重复使用。
+ * <p>
+ * reach 是碰撞预测需要的近邻范围（见 CellList），skin 是额外留出的余量。
+ * 建表之后每个粒子的位移不超过 d 时，任意两个粒子的距离最多缩短 2d，
+ * 所以只要 2 * 最大位移 + 当前的 reach 不超过建表时的 reach + skin，表里就仍然包含所有可能相撞的粒子对；
+ * 否则（粒子走得太远，或者最大速度变大使 reach 变大）才重建。
+ * 检查只需要和建表时的位置比较一遍，O(N)，重建时用 CellList 找出候选再按距离筛选。
+ */
+public class VerletList{
+    private final CellList grid;
+    private double skin;          // 0 表示第一次建表时取 reach 的一半
+    private double range;         // 建表时的 reach + skin
+    private double[] x0 = new double[0], y0 = new double[0];   // 建表时的位置
+    private int builds;
+
+    public VerletList(double width, double skin){
+        this.grid = new CellList(width);
+        this.skin = skin;
+    }
+
+    //需要时重建近邻表，返回是否重建了
+    public boolean update(Particle[] particles, double reach, NeighborTable neighbors){
+        if(skin <= 0) skin = 0.5 * reach;
+        if(x0.length == particles.length && 2 * maxDisplacement(particles) + reach <= range){
+            return false;
+        }
+        build(particles, reach, neighbors);
+        return true;
+    }
+
+    private void build(Particle[] particles, double reach, NeighborTable neighbors){
+        int n = particles.length;
+        double range = reach + skin;
+        this.range = range;
+        if(x0.length != n){
+            x0 = new double[n];
+            y0 = new double[n];
+        }
+        for(int i = 0; i < n; i++){
+            x0[i] = particles[i].getRx();
+            y0[i] = particles[i].getRy();
+        }
+        grid.build(particles, range);
+        neighbors.build(particles, (p, row) -> grid.findNeighbor(p, range, row));
+        builds++;
+    }
+
+    private double maxDisplacement(Particle[] particles){
+        double max2 = 0;
+        for(int i = 0; i < particles.length; i++){
+            double dx = particles[i].getRx() - x0[i];
+            double dy = particles[i].getRy() - y0[i];
+            max2 = Math.max(max2, dx * dx + dy * dy);
+        }
+        return Math.sqrt(max2);
+    }
+
+    public double getSkin(){
+        return skin;
+    }
+
+    //到目前为止建表的次数
+    public int getBuilds(){
+        return builds;
+    }
+}